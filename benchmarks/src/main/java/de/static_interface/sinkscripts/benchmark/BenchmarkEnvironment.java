@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.benchmark;
+
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import de.static_interface.sinklibrary.api.user.SinkUser;
+import de.static_interface.sinkscripts.SinkScripts;
+import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl.GroovyScript;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl.JavaScriptScript;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl.LuaScript;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl.PythonScript;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl.RubyScript;
+import de.static_interface.sinkscripts.util.JoinClassLoader;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Logger;
+
+/**
+ * Runs the script languages without a server: the plugin and users are mocks, scripts are stored in a temporary
+ * directory. The plugin is never enabled, so nothing gets scheduled on the (missing) main thread
+ */
+public class BenchmarkEnvironment {
+
+    private final SinkScripts plugin;
+    private final SinkUser user;
+    private final YamlConfiguration config;
+
+    public BenchmarkEnvironment() throws IOException {
+        File scriptsFolder = Files.createTempDirectory("sinkscripts-benchmark").toFile();
+        SinkScripts.SCRIPTS_FOLDER = scriptsFolder;
+        SinkScripts.FRAMEWORK_FOLDER = new File(scriptsFolder, "framework");
+
+        config = new YamlConfiguration();
+        config.set("compiled-cache-size", 64);
+        config.set("engine-pool.min-size", 1);
+        config.set("engine-pool.max-size", 4);
+
+        plugin = mock(SinkScripts.class);
+        when(plugin.getConfig()).thenReturn(config);
+        when(plugin.getLogger()).thenReturn(Logger.getLogger("SinkScripts"));
+        when(plugin.isEnabled()).thenReturn(false);
+        // the same kind of class loader as on a server, the jars of the engines are on the class path here
+        ClassLoader classLoader = BenchmarkEnvironment.class.getClassLoader();
+        when(plugin.getScriptClassLoader()).thenReturn(new JoinClassLoader(classLoader, classLoader));
+
+        user = mock(SinkUser.class, RETURNS_DEEP_STUBS);
+        when(user.getName()).thenReturn("benchmark");
+    }
+
+    public ScriptLanguage createLanguage(String name) {
+        switch (name) {
+            case "groovy":
+                return new GroovyScript(plugin);
+            case "javascript":
+                return new JavaScriptScript(plugin);
+            case "lua":
+                return new LuaScript(plugin);
+            case "python":
+                return new PythonScript(plugin);
+            case "ruby":
+                return new RubyScript(plugin);
+            default:
+                throw new IllegalArgumentException("Unknown language: " + name);
+        }
+    }
+
+    public ScriptContext createContext(ScriptLanguage language) {
+        ScriptContext context = new ScriptContext(user, language, plugin);
+        if (context.getExecutor() == null) {
+            throw new IllegalStateException("Script engine for " + language.getName() + " is not available");
+        }
+        return context;
+    }
+
+    /**
+     * @return a small script which sums up the numbers from 0 to 99
+     */
+    public static String getScript(String language) {
+        switch (language) {
+            case "groovy":
+                return "def sum = 0; for (i in 0..<100) { sum += i }; sum";
+            case "javascript":
+                return "var sum = 0; for (var i = 0; i < 100; i++) { sum += i; } sum";
+            case "lua":
+                return "local sum = 0 for i = 0, 99 do sum = sum + i end return sum";
+            case "python":
+                return "sum = 0\nfor i in range(100):\n    sum += i\n";
+            case "ruby":
+                return "sum = 0; (0...100).each { |i| sum += i }; sum";
+            default:
+                throw new IllegalArgumentException("Unknown language: " + language);
+        }
+    }
+
+    /**
+     * @return the plugin config, changes only affect languages created afterwards
+     */
+    public YamlConfiguration getConfig() {
+        return config;
+    }
+
+    public SinkScripts getPlugin() {
+        return plugin;
+    }
+
+    public SinkUser getUser() {
+        return user;
+    }
+
+    /**
+     * Create a class loader for the jar of each given class. The loaders only delegate to the boot class loader, so
+     * classes loaded through them aren't shared with the benchmark
+     * @param classNames a class of every jar
+     */
+    public static URLClassLoader[] createJarClassLoaders(String... classNames) throws ClassNotFoundException {
+        URLClassLoader[] loaders = new URLClassLoader[classNames.length];
+        for (int i = 0; i < classNames.length; i++) {
+            loaders[i] = new URLClassLoader(new URL[]{getJar(classNames[i])}, null);
+        }
+        return loaders;
+    }
+
+    /**
+     * @param className a class of the jar
+     * @param packageName only classes of this package and its subpackages are returned
+     * @param max the maximum amount of class names
+     * @return the names of the top level classes in the jar of the given class
+     */
+    public static List<String> getClassNames(String className, String packageName, int max) throws ClassNotFoundException, IOException {
+        List<String> names = new ArrayList<>();
+        String prefix = packageName.replace('.', '/') + "/";
+        try (JarFile jar = new JarFile(new File(getJar(className).toURI()))) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements() && names.size() < max) {
+                String name = entries.nextElement().getName();
+                if (name.startsWith(prefix) && name.endsWith(".class") && !name.contains("$")) {
+                    names.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        return names;
+    }
+
+    private static URL getJar(String className) throws ClassNotFoundException {
+        return Class.forName(className, false, BenchmarkEnvironment.class.getClassLoader())
+                .getProtectionDomain().getCodeSource().getLocation();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.benchmark;
+
+import de.static_interface.sinkscripts.util.JoinClassLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads classes through the {@link JoinClassLoader} which is used by all script engines.
+ * {@code defineClasses} defines the classes of the groovy runtime in a new class loader, like the engines do after a
+ * reload. The used metaspace (or permgen) is printed after every iteration. {@code missingUnique} probes names which
+ * never exist, like groovy's {@code BeanInfo} lookups, and shows that the negative cache stays bounded.
+ * {@code missingRepeated} probes the same missing name, which is answered by the cache.
+ * <p>
+ * Run with {@code java -jar target/benchmarks.jar ClassLoadingBenchmark}
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClassLoadingBenchmark {
+
+    static final String[] JARS = {"org.bukkit.Bukkit", "groovy.lang.GroovyObject", "org.jruby.Ruby", "org.python.core.PyObject",
+                                  "org.luaj.vm2.LuaValue"};
+
+    @Param({"500"})
+    public int classes;
+
+    private URLClassLoader[] delegates;
+    private List<String> classNames;
+    private JoinClassLoader loader;
+    private MemoryPoolMXBean classMemory;
+    private long missingIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        delegates = BenchmarkEnvironment.createJarClassLoaders(JARS);
+
+        // skip classes which need libraries that aren't on the class path, e.g. junit
+        classNames = new ArrayList<>();
+        JoinClassLoader probe = new JoinClassLoader(null, delegates);
+        for (String name : BenchmarkEnvironment.getClassNames("groovy.lang.GroovyObject", "groovy", classes)) {
+            try {
+                Class.forName(name, false, probe);
+                classNames.add(name);
+            } catch (ClassNotFoundException | LinkageError ignored) {
+            }
+        }
+
+        loader = new JoinClassLoader(null, delegates);
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getName().contains("Metaspace") || pool.getName().contains("Perm Gen")) {
+                classMemory = pool;
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void printClassMemory() {
+        if (classMemory != null) {
+            System.out.println(classMemory.getName() + ": " + classMemory.getUsage().getUsed() / 1024 + " KiB used");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (URLClassLoader delegate : delegates) {
+            delegate.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 20)
+    public ClassLoader defineClasses() throws ClassNotFoundException {
+        JoinClassLoader classLoader = new JoinClassLoader(null, delegates);
+        for (String name : classNames) {
+            Class.forName(name, false, classLoader);
+        }
+        return classLoader;
+    }
+
+    @Benchmark
+    public Object missingUnique() {
+        return loadMissing("groovy.runtime.Generated" + missingIndex++ + "BeanInfo");
+    }
+
+    @Benchmark
+    public Object missingRepeated() {
+        return loadMissing("groovy.runtime.ScriptBeanInfo");
+    }
+
+    private Object loadMissing(String name) {
+        try {
+            return loader.loadClass(name);
+        } catch (ClassNotFoundException e) {
+            return e;
+        }
+    }
+}
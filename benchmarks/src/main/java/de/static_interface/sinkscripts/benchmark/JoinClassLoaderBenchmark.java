@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.benchmark;
+
+import de.static_interface.sinkscripts.util.JoinClassLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads classes through one {@link JoinClassLoader} from several threads, like concurrent scripts do. The class
+ * loader joins a loader for each language runtime and the bukkit API.
+ * {@code defineClasses} lets every thread load the same classes into a new class loader, starting at a different
+ * class, so threads meet while defining classes. {@code loadDefined} loads classes which have been defined already
+ * and {@code loadMissing} probes names which don't exist.
+ * <p>
+ * Run with {@code java -jar target/benchmarks.jar JoinClassLoaderBenchmark}, use {@code -t} to change the number
+ * of threads
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JoinClassLoaderBenchmark {
+
+    private static final int CLASSES = 500;
+
+    private final AtomicInteger nextThread = new AtomicInteger();
+    private URLClassLoader[] delegates;
+    private List<String> classNames;
+    private JoinClassLoader definedLoader;
+    private volatile JoinClassLoader freshLoader;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        delegates = BenchmarkEnvironment.createJarClassLoaders(ClassLoadingBenchmark.JARS);
+
+        // skip classes which need libraries that aren't on the class path
+        classNames = new ArrayList<>();
+        definedLoader = new JoinClassLoader(null, delegates);
+        for (String name : BenchmarkEnvironment.getClassNames("org.jruby.Ruby", "org.jruby", CLASSES)) {
+            try {
+                Class.forName(name, false, definedLoader);
+                classNames.add(name);
+            } catch (ClassNotFoundException | LinkageError ignored) {
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createFreshLoader() {
+        freshLoader = new JoinClassLoader(null, delegates);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (URLClassLoader delegate : delegates) {
+            delegate.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 20)
+    public ClassLoader defineClasses(ThreadState state) throws ClassNotFoundException {
+        JoinClassLoader classLoader = freshLoader;
+        int size = classNames.size();
+        for (int i = 0; i < size; i++) {
+            Class.forName(classNames.get((state.offset + i) % size), false, classLoader);
+        }
+        return classLoader;
+    }
+
+    @Benchmark
+    public Class<?> loadDefined(ThreadState state) throws ClassNotFoundException {
+        return definedLoader.loadClass(classNames.get(state.next++ % classNames.size()));
+    }
+
+    @Benchmark
+    public Object loadMissing(ThreadState state) {
+        try {
+            return definedLoader.loadClass("org.jruby.gen.Missing" + (state.next++ % 64) + "BeanInfo");
+        } catch (ClassNotFoundException e) {
+            return e;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private int offset;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup(JoinClassLoaderBenchmark benchmark) {
+            offset = benchmark.nextThread.getAndIncrement() * (CLASSES / 4);
+            next = offset;
+        }
+    }
+}
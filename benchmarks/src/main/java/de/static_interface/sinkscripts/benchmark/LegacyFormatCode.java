@@ -0,0 +1,634 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.benchmark;
+
+import org.bukkit.ChatColor;
+
+import java.util.HashMap;
+
+/**
+ * The formatCode implementations of the languages before they were replaced by the SyntaxHighlighter, kept as
+ * baseline for {@link SyntaxHighlighterBenchmark}
+ */
+public class LegacyFormatCode {
+
+    public static String groovy(String code) {
+        ChatColor defaultColor = ChatColor.DARK_BLUE;
+        ChatColor codeColor = ChatColor.RESET;
+        ChatColor classColor = ChatColor.BLUE;
+        ChatColor stringColor = ChatColor.RED;
+
+        HashMap<String, ChatColor> syntaxColors = new HashMap<>();
+        syntaxColors.put("import", ChatColor.GOLD);
+        syntaxColors.put("package", ChatColor.GOLD);
+
+        syntaxColors.put("class", defaultColor);
+        syntaxColors.put("implements", defaultColor);
+        syntaxColors.put("extends", defaultColor);
+        syntaxColors.put("enum", defaultColor);
+        syntaxColors.put("interface", defaultColor);
+
+        syntaxColors.put("public", defaultColor);
+        syntaxColors.put("private", defaultColor);
+        syntaxColors.put("protected", defaultColor);
+
+        syntaxColors.put("final", defaultColor);
+        syntaxColors.put("static", defaultColor);
+        syntaxColors.put("native", defaultColor);
+        syntaxColors.put("throws", defaultColor);
+        syntaxColors.put("transient", defaultColor);
+        syntaxColors.put("volatile", defaultColor);
+        syntaxColors.put("synchronized", defaultColor);
+        syntaxColors.put("strictfp", defaultColor);
+        syntaxColors.put("const", defaultColor);
+
+        syntaxColors.put("try", defaultColor);
+        syntaxColors.put("catch", defaultColor);
+        syntaxColors.put("finally", defaultColor);
+        syntaxColors.put("throw", defaultColor);
+
+        syntaxColors.put("for", defaultColor);
+        syntaxColors.put("while", defaultColor);
+        syntaxColors.put("continue", defaultColor);
+
+        syntaxColors.put("void", defaultColor);
+        syntaxColors.put("return", defaultColor);
+        syntaxColors.put("switch", defaultColor);
+        syntaxColors.put("case", defaultColor);
+        syntaxColors.put("default", defaultColor);
+        syntaxColors.put("super", defaultColor);
+        syntaxColors.put("goto", defaultColor);
+
+        syntaxColors.put("new", defaultColor);
+        syntaxColors.put("this", defaultColor);
+        syntaxColors.put("null", ChatColor.GOLD);
+
+        syntaxColors.put("if", defaultColor);
+        syntaxColors.put("else", defaultColor);
+        syntaxColors.put("instanceof", defaultColor);
+        syntaxColors.put("assert", defaultColor);
+
+        syntaxColors.put("true", ChatColor.GOLD);
+        syntaxColors.put("false", ChatColor.GOLD);
+
+        syntaxColors.put("int", defaultColor);
+        syntaxColors.put("boolean", defaultColor);
+        syntaxColors.put("long", defaultColor);
+        syntaxColors.put("short", defaultColor);
+        syntaxColors.put("float", defaultColor);
+        syntaxColors.put("byte", defaultColor);
+        syntaxColors.put("char", defaultColor);
+
+        for (String keyWord : syntaxColors.keySet()) {
+            ChatColor color = syntaxColors.get(keyWord);
+            code = code.replace(" " + keyWord + " ", color + " " + keyWord + " " + ChatColor.RESET);
+            code = code.replace(" " + keyWord, color + " " + keyWord + ChatColor.RESET);
+            code = code.replace(keyWord + " ", color + keyWord + " " + ChatColor.RESET);
+        }
+
+        //Set class color, its not the best solution, because variables may also start with an uppercase name
+        boolean classStart = false;
+        char lastChar = 0;
+        String tmp = "";
+        for (char Char : code.toCharArray()) {
+            boolean t = false;
+            if (!Character.isAlphabetic(lastChar) && Character.isUpperCase(Char) && !classStart) {
+                classStart = true;
+                t = true;
+            }
+
+            if (!classStart) {
+                tmp += Char;
+                continue;
+            }
+
+            if (!Character.isAlphabetic(Char)
+                && !t)//if(Char == '.' || Char == ' ' || Char == ';' || Char == '+' || Char == '-' || Char == '*' || Char == ':' || Char == '/')
+            {
+                classStart = false;
+                tmp += ChatColor.RESET + "" + Char;
+                continue;
+            }
+
+            tmp += classColor + "" + Char;
+            lastChar = Char;
+        }
+
+        code = tmp;
+        tmp = "";
+        lastChar = 0;
+
+        boolean stringStart = false;
+
+        //Set String color
+        for (char Char : code.toCharArray()) {
+            if (Char == '"' && lastChar != '\\') {
+                if (!stringStart) {
+                    tmp += stringColor;
+                }
+
+                tmp += Char;
+
+                if (stringStart) {
+                    tmp += codeColor;
+                }
+
+                stringStart = !stringStart;
+            } else {
+                tmp += Char;
+            }
+            lastChar = Char;
+        }
+
+        return tmp;
+    }
+
+    public static String javascript(String code) {
+        ChatColor defaultColor = ChatColor.DARK_BLUE;
+        ChatColor codeColor = ChatColor.RESET;
+        ChatColor classColor = ChatColor.BLUE;
+        ChatColor stringColor = ChatColor.RED;
+
+        HashMap<String, ChatColor> syntaxColors = new HashMap<>();
+        syntaxColors.put("import", ChatColor.GOLD);
+        syntaxColors.put("package", ChatColor.GOLD);
+
+        syntaxColors.put("abstract", defaultColor);
+        syntaxColors.put("case", defaultColor);
+        syntaxColors.put("continue", defaultColor);
+        syntaxColors.put("double", defaultColor);
+        syntaxColors.put("extends", defaultColor);
+        syntaxColors.put("for", defaultColor);
+        syntaxColors.put("let", defaultColor);
+        syntaxColors.put("short", defaultColor);
+        syntaxColors.put("this", defaultColor);
+        syntaxColors.put("try", defaultColor);
+        syntaxColors.put("while", defaultColor);
+        syntaxColors.put("arguments", defaultColor);
+        syntaxColors.put("catch", defaultColor);
+        syntaxColors.put("debugger", defaultColor);
+        syntaxColors.put("else", defaultColor);
+        syntaxColors.put("false", ChatColor.GOLD);
+        syntaxColors.put("function", defaultColor);
+        syntaxColors.put("in", defaultColor);
+        syntaxColors.put("long", defaultColor);
+        syntaxColors.put("private", defaultColor);
+        syntaxColors.put("static", defaultColor);
+        syntaxColors.put("throw", defaultColor);
+        syntaxColors.put("typeof", defaultColor);
+        syntaxColors.put("with", defaultColor);
+        syntaxColors.put("boolean", defaultColor);
+        syntaxColors.put("char", defaultColor);
+        syntaxColors.put("default", defaultColor);
+        syntaxColors.put("enum", defaultColor);
+        syntaxColors.put("final", defaultColor);
+        syntaxColors.put("goto", defaultColor);
+        syntaxColors.put("instanceof", defaultColor);
+        syntaxColors.put("native", defaultColor);
+        syntaxColors.put("protected", defaultColor);
+        syntaxColors.put("super", defaultColor);
+        syntaxColors.put("throws", defaultColor);
+        syntaxColors.put("var", defaultColor);
+        syntaxColors.put("yield", defaultColor);
+        syntaxColors.put("break", defaultColor);
+        syntaxColors.put("class", defaultColor);
+        syntaxColors.put("delete", defaultColor);
+        syntaxColors.put("eval", defaultColor);
+        syntaxColors.put("finally", defaultColor);
+        syntaxColors.put("if", defaultColor);
+        syntaxColors.put("int", defaultColor);
+        syntaxColors.put("new", defaultColor);
+        syntaxColors.put("public", defaultColor);
+        syntaxColors.put("switch", defaultColor);
+        syntaxColors.put("transient", defaultColor);
+        syntaxColors.put("void", defaultColor);
+        syntaxColors.put("byte", defaultColor);
+        syntaxColors.put("const", defaultColor);
+        syntaxColors.put("do", defaultColor);
+        syntaxColors.put("export", defaultColor);
+        syntaxColors.put("float", defaultColor);
+        syntaxColors.put("implements", defaultColor);
+        syntaxColors.put("interface", defaultColor);
+        syntaxColors.put("null", ChatColor.GOLD);
+        syntaxColors.put("return", defaultColor);
+        syntaxColors.put("synchronized", defaultColor);
+        syntaxColors.put("true", ChatColor.GOLD);
+        syntaxColors.put("volatile", defaultColor);
+        syntaxColors.put("isFinite", defaultColor);
+        syntaxColors.put("NaN", defaultColor);
+        syntaxColors.put("name", defaultColor);
+        syntaxColors.put("eval", defaultColor);
+        syntaxColors.put("function", defaultColor);
+        syntaxColors.put("length", defaultColor);
+        syntaxColors.put("valueOf", defaultColor);
+        syntaxColors.put("hasOwnProperty", defaultColor);
+        syntaxColors.put("toString", defaultColor);
+        syntaxColors.put("const", defaultColor);
+
+        for (String keyWord : syntaxColors.keySet()) {
+            ChatColor color = syntaxColors.get(keyWord);
+            code = code.replace(" " + keyWord + " ", color + " " + keyWord + " " + ChatColor.RESET);
+            code = code.replace(" " + keyWord, color + " " + keyWord + ChatColor.RESET);
+            code = code.replace(keyWord + " ", color + keyWord + " " + ChatColor.RESET);
+        }
+
+        //Set class color, its not the best solution, because variables may also start with an uppercase name
+        boolean classStart = false;
+        char lastChar = 0;
+        String tmp = "";
+        for (char Char : code.toCharArray()) {
+            boolean t = false;
+            if (!Character.isAlphabetic(lastChar) && Character.isUpperCase(Char) && !classStart) {
+                classStart = true;
+                t = true;
+            }
+
+            if (!classStart) {
+                tmp += Char;
+                continue;
+            }
+
+            if (!Character.isAlphabetic(Char)
+                && !t)//if(Char == '.' || Char == ' ' || Char == ';' || Char == '+' || Char == '-' || Char == '*' || Char == ':' || Char == '/')
+            {
+                classStart = false;
+                tmp += ChatColor.RESET + "" + Char;
+                continue;
+            }
+
+            tmp += classColor + "" + Char;
+            lastChar = Char;
+        }
+
+        code = tmp;
+        tmp = "";
+        lastChar = 0;
+
+        boolean stringStart = false;
+
+        //Set String color
+        for (char Char : code.toCharArray()) {
+            if (Char == '"' && lastChar != '\\') {
+                if (!stringStart) {
+                    tmp += stringColor;
+                }
+
+                tmp += Char;
+
+                if (stringStart) {
+                    tmp += codeColor;
+                }
+
+                stringStart = !stringStart;
+            } else {
+                tmp += Char;
+            }
+            lastChar = Char;
+        }
+
+        return tmp;
+    }
+
+    public static String lua(String code) {
+        ChatColor defaultColor = ChatColor.DARK_BLUE;
+        ChatColor codeColor = ChatColor.RESET;
+        ChatColor classColor = ChatColor.BLUE;
+        ChatColor stringColor = ChatColor.RED;
+
+        HashMap<String, ChatColor> syntaxColors = new HashMap<>();
+
+        syntaxColors.put("and", defaultColor);
+        syntaxColors.put("end", defaultColor);
+        syntaxColors.put("in", defaultColor);
+        syntaxColors.put("repeat", defaultColor);
+        syntaxColors.put("break", defaultColor);
+        syntaxColors.put("false", defaultColor);
+        syntaxColors.put("local", defaultColor);
+        syntaxColors.put("return", defaultColor);
+        syntaxColors.put("do", defaultColor);
+        syntaxColors.put("for", defaultColor);
+        syntaxColors.put("nil", defaultColor);
+        syntaxColors.put("then", defaultColor);
+        syntaxColors.put("else", defaultColor);
+        syntaxColors.put("function", defaultColor);
+        syntaxColors.put("not", defaultColor);
+        syntaxColors.put("true", defaultColor);
+        syntaxColors.put("elseif", defaultColor);
+        syntaxColors.put("if", defaultColor);
+        syntaxColors.put("or", defaultColor);
+        syntaxColors.put("until", defaultColor);
+        syntaxColors.put("while", defaultColor);
+
+        for (String keyWord : syntaxColors.keySet()) {
+            ChatColor color = syntaxColors.get(keyWord);
+            code = code.replace(" " + keyWord + " ", color + " " + keyWord + " " + ChatColor.RESET);
+            code = code.replace(" " + keyWord, color + " " + keyWord + ChatColor.RESET);
+            code = code.replace(keyWord + " ", color + keyWord + " " + ChatColor.RESET);
+        }
+
+        //Set class color, its not the best solution, because variables may also start with an uppercase name
+        boolean classStart = false;
+        char lastChar = 0;
+        String tmp = "";
+        for (char Char : code.toCharArray()) {
+            boolean t = false;
+            if (!Character.isAlphabetic(lastChar) && Character.isUpperCase(Char) && !classStart) {
+                classStart = true;
+                t = true;
+            }
+
+            if (!classStart) {
+                tmp += Char;
+                continue;
+            }
+
+            if (!Character.isAlphabetic(Char)
+                && !t)//if(Char == '.' || Char == ' ' || Char == ';' || Char == '+' || Char == '-' || Char == '*' || Char == ':' || Char == '/')
+            {
+                classStart = false;
+                tmp += ChatColor.RESET + "" + Char;
+                continue;
+            }
+
+            tmp += classColor + "" + Char;
+            lastChar = Char;
+        }
+
+        code = tmp;
+        tmp = "";
+
+        char startChar = 0;
+        boolean resetColor = false;
+        //Set String color
+        for (char Char : code.toCharArray()) {
+            if (Char == startChar) {
+                tmp += Char;
+                startChar = 0;
+                resetColor = true;
+            } else if (Char == '\'' || Char == '"' || (Char == '^' && lastChar == 'q')) {
+                if (startChar == 0 && Char != ']') {
+                    startChar = Char;
+                }
+
+                tmp += stringColor;
+                tmp += Char;
+            } else if (resetColor) {
+                tmp += codeColor;
+                tmp += Char;
+                resetColor = false;
+            } else {
+                tmp += Char;
+            }
+
+            lastChar = Char;
+        }
+
+        return tmp;
+    }
+
+    public static String python(String code) {
+        ChatColor defaultColor = ChatColor.DARK_BLUE;
+        ChatColor codeColor = ChatColor.RESET;
+        ChatColor classColor = ChatColor.BLUE;
+        ChatColor stringColor = ChatColor.RED;
+
+        //Set class color, its not the best solution, because variables may also start with an uppercase name
+        boolean classStart = false;
+        char lastChar = 0;
+        String tmp = "";
+        for (char Char : code.toCharArray()) {
+            boolean t = false;
+            if (!Character.isAlphabetic(lastChar) && Character.isUpperCase(Char) && !classStart) {
+                classStart = true;
+                t = true;
+            }
+
+            if (!classStart) {
+                tmp += Char;
+                continue;
+            }
+
+            if (!Character.isAlphabetic(Char)
+                && !t)//if(Char == '.' || Char == ' ' || Char == ';' || Char == '+' || Char == '-' || Char == '*' || Char == ':' || Char == '/')
+            {
+                classStart = false;
+                tmp += ChatColor.RESET + "" + Char;
+                continue;
+            }
+
+            tmp += classColor + "" + Char;
+            lastChar = Char;
+        }
+
+        code = tmp;
+
+        HashMap<String, ChatColor> syntaxColors = new HashMap<>();
+
+        syntaxColors.put("and", defaultColor);
+        syntaxColors.put("del", defaultColor);
+        syntaxColors.put("from", ChatColor.GOLD);
+        syntaxColors.put("not", defaultColor);
+        syntaxColors.put("while", defaultColor);
+        syntaxColors.put("as", defaultColor);
+        syntaxColors.put("elif", defaultColor);
+        syntaxColors.put("global", defaultColor);
+        syntaxColors.put("or", defaultColor);
+        syntaxColors.put("with", defaultColor);
+        syntaxColors.put("assert", defaultColor);
+        syntaxColors.put("else", defaultColor);
+        syntaxColors.put("if", defaultColor);
+        syntaxColors.put("pass", defaultColor);
+        syntaxColors.put("yiel", defaultColor);
+        syntaxColors.put("break", defaultColor);
+        syntaxColors.put("except", defaultColor);
+        syntaxColors.put("import", ChatColor.GOLD);
+        syntaxColors.put("print", defaultColor);
+        syntaxColors.put("class", defaultColor);
+        syntaxColors.put("exec", defaultColor);
+        syntaxColors.put("in", defaultColor);
+        syntaxColors.put("raise", defaultColor);
+        syntaxColors.put("continue", defaultColor);
+        syntaxColors.put("finally", defaultColor);
+        syntaxColors.put("is", defaultColor);
+        syntaxColors.put("return", defaultColor);
+        syntaxColors.put("def", defaultColor);
+        syntaxColors.put("for", defaultColor);
+        syntaxColors.put("lambda", defaultColor);
+        syntaxColors.put("try", defaultColor);
+
+        syntaxColors.put("True", ChatColor.GOLD);
+        syntaxColors.put("False", ChatColor.GOLD);
+        for (String keyWord : syntaxColors.keySet()) {
+            ChatColor color = syntaxColors.get(keyWord);
+            code = code.replace(" " + keyWord + " ", color + " " + keyWord + " " + ChatColor.RESET);
+            code = code.replace(" " + keyWord, color + " " + keyWord + ChatColor.RESET);
+            code = code.replace(keyWord + " ", color + keyWord + " " + ChatColor.RESET);
+        }
+
+        tmp = "";
+
+        char startChar = 0;
+        //Set String color
+        for (char Char : code.toCharArray()) {
+            if (Char == startChar) {
+                if ((Char == ']' && lastChar == ']') || Char != ']') {
+                    tmp += codeColor;
+                }
+                tmp += Char;
+                startChar = 0;
+            } else if (Char == '\'' || Char == '"' || (Char == '[' && lastChar == '[')) {
+                if (startChar == 0 && Char != ']') {
+                    startChar = Char;
+                }
+
+                tmp += stringColor;
+                tmp += Char;
+            } else {
+                tmp += Char;
+            }
+            lastChar = Char;
+        }
+
+        return tmp;
+    }
+
+    public static String ruby(String code) {
+        ChatColor defaultColor = ChatColor.DARK_BLUE;
+        ChatColor codeColor = ChatColor.RESET;
+        ChatColor classColor = ChatColor.BLUE;
+        ChatColor stringColor = ChatColor.RED;
+
+        //Set class color, its not the best solution, because variables may also start with an uppercase name
+        boolean classStart = false;
+        char lastChar = 0;
+        String tmp = "";
+        for (char Char : code.toCharArray()) {
+            boolean t = false;
+            if (!Character.isAlphabetic(lastChar) && Character.isUpperCase(Char) && !classStart) {
+                classStart = true;
+                t = true;
+            }
+
+            if (!classStart) {
+                tmp += Char;
+                continue;
+            }
+
+            if (!Character.isAlphabetic(Char)
+                && !t)//if(Char == '.' || Char == ' ' || Char == ';' || Char == '+' || Char == '-' || Char == '*' || Char == ':' || Char == '/')
+            {
+                classStart = false;
+                tmp += ChatColor.RESET + "" + Char;
+                continue;
+            }
+
+            tmp += classColor + "" + Char;
+            lastChar = Char;
+        }
+
+        code = tmp;
+
+        HashMap<String, ChatColor> syntaxColors = new HashMap<>();
+        syntaxColors.put("import", ChatColor.GOLD);
+        syntaxColors.put("package", ChatColor.GOLD);
+        syntaxColors.put("BEGIN", defaultColor);
+        syntaxColors.put("END", defaultColor);
+        syntaxColors.put("__ENCODING__", defaultColor);
+        syntaxColors.put("__END__", defaultColor);
+        syntaxColors.put("__FILE__", defaultColor);
+        syntaxColors.put("__LINE__", defaultColor);
+        syntaxColors.put("alias", defaultColor);
+        syntaxColors.put("and", defaultColor);
+        syntaxColors.put("begin", defaultColor);
+        syntaxColors.put("break", defaultColor);
+        syntaxColors.put("case", defaultColor);
+        syntaxColors.put("class", defaultColor);
+        syntaxColors.put("def", defaultColor);
+        syntaxColors.put("defined?", defaultColor);
+        syntaxColors.put("do", defaultColor);
+        syntaxColors.put("else", defaultColor);
+        syntaxColors.put("elsif", defaultColor);
+        syntaxColors.put("end", defaultColor);
+        syntaxColors.put("ensure", defaultColor);
+        syntaxColors.put("false", ChatColor.GOLD);
+        syntaxColors.put("for", defaultColor);
+        syntaxColors.put("if", defaultColor);
+        syntaxColors.put("in", defaultColor);
+        syntaxColors.put("module", defaultColor);
+        syntaxColors.put("next", defaultColor);
+        syntaxColors.put("nil", ChatColor.GOLD);
+        syntaxColors.put("not", defaultColor);
+        syntaxColors.put("or", defaultColor);
+        syntaxColors.put("redo", defaultColor);
+        syntaxColors.put("rescue", defaultColor);
+        syntaxColors.put("retry", defaultColor);
+        syntaxColors.put("return", defaultColor);
+        syntaxColors.put("self", defaultColor);
+        syntaxColors.put("super", defaultColor);
+        syntaxColors.put("then", defaultColor);
+        syntaxColors.put("true", ChatColor.GOLD);
+        syntaxColors.put("undef", defaultColor);
+        syntaxColors.put("unless", defaultColor);
+        syntaxColors.put("until", defaultColor);
+        syntaxColors.put("when", defaultColor);
+        syntaxColors.put("while", defaultColor);
+        syntaxColors.put("yield", defaultColor);
+
+        syntaxColors.put("java_import", ChatColor.GOLD);
+        syntaxColors.put("import", ChatColor.GOLD);
+        syntaxColors.put("include", ChatColor.GOLD);
+        syntaxColors.put("include_class", ChatColor.GOLD);
+        syntaxColors.put("include_package", ChatColor.GOLD);
+        syntaxColors.put("require", ChatColor.GOLD);
+        syntaxColors.put("package_name", ChatColor.GOLD);
+
+        for (String keyWord : syntaxColors.keySet()) {
+            ChatColor color = syntaxColors.get(keyWord);
+            code = code.replace(" " + keyWord + " ", color + " " + keyWord + " " + ChatColor.RESET);
+            code = code.replace(" " + keyWord, color + " " + keyWord + ChatColor.RESET);
+            code = code.replace(keyWord + " ", color + keyWord + " " + ChatColor.RESET);
+        }
+
+        tmp = "";
+        lastChar = 0;
+
+        boolean stringStart = false;
+
+        //Set String color
+        for (char Char : code.toCharArray()) {
+            if (Char == '"' && lastChar != '\\') {
+                if (!stringStart) {
+                    tmp += stringColor;
+                }
+
+                tmp += Char;
+
+                if (stringStart) {
+                    tmp += codeColor;
+                }
+
+                stringStart = !stringStart;
+            } else {
+                tmp += Char;
+            }
+            lastChar = Char;
+        }
+
+        return tmp;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.benchmark;
+
+import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the compile modes of the ruby language. {@code throughput} shows the speed of a loop heavy script once
+ * everything is compiled, {@code warmup} the time of the first runs on a new engine.
+ * <p>
+ * The compile mode is a system property which JRuby reads once, so every mode needs its own fork.
+ * Run with {@code java -jar target/benchmarks.jar RubyCompileModeBenchmark}
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RubyCompileModeBenchmark {
+
+    private static final String SCRIPT = "def fib(n)\n"
+                                         + "  n < 2 ? n : fib(n - 1) + fib(n - 2)\n"
+                                         + "end\n"
+                                         + "sum = 0\n"
+                                         + "(0...1000).each { |i| sum += i * i }\n"
+                                         + "sum + fib(15)\n";
+
+    @Param({"OFF", "JIT", "FORCE"})
+    public String compileMode;
+
+    @Param({"0"})
+    public int jitThreshold;
+
+    private BenchmarkEnvironment environment;
+    private ScriptLanguage language;
+    private ScriptContext context;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        environment = new BenchmarkEnvironment();
+        environment.getConfig().set("languages.ruby.compile-mode", compileMode);
+        environment.getConfig().set("languages.ruby.jit.threshold", jitThreshold);
+        language = environment.createLanguage("ruby");
+        context = environment.createContext(language);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.releaseExecutor();
+        language.disable();
+    }
+
+    @Benchmark
+    public Object throughput() throws Throwable {
+        return language.run(context, SCRIPT, true, false);
+    }
+
+    /**
+     * The first runs of the script on a new language instance, including parsing and compiling
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 10)
+    public Object warmup(ColdState state) throws Throwable {
+        Object result = null;
+        for (int i = 0; i < 10; i++) {
+            result = state.language.run(state.context, SCRIPT, true, false);
+        }
+        return result;
+    }
+
+    @State(Scope.Thread)
+    public static class ColdState {
+        private ScriptLanguage language;
+        private ScriptContext context;
+
+        @Setup(Level.Iteration)
+        public void setup(RubyCompileModeBenchmark benchmark) {
+            language = benchmark.environment.createLanguage("ruby");
+            context = benchmark.environment.createContext(language);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            context.releaseExecutor();
+            language.disable();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.static_interface.sinkscripts.benchmark;
+
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import de.static_interface.sinklibrary.api.user.SinkUser;
+import de.static_interface.sinkscripts.SinkScripts;
+import de.static_interface.sinkscripts.scriptengine.ScriptHandler;
+import de.static_interface.sinkscripts.scriptengine.ScriptWorkerPool;
+import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Sends lines of several users to {@link ScriptHandler#handleLine} from several threads at once, like players
+ * chatting on a server. Lines run on the worker pool and are handed over to a single thread which stands in for the
+ * main thread.
+ * <p>
+ * After every iteration the code buffer of each user is checked: it has to contain every line sent for the user and
+ * the lines of each sending thread in the order they were sent. An {@link IllegalStateException} fails the run if a
+ * line got lost or reordered.
+ * <p>
+ * Run with {@code java -jar target/benchmarks.jar ScriptHandlerStressBenchmark}, use {@code -t} to change the number
+ * of threads
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScriptHandlerStressBenchmark {
+
+    private static final int USERS = 16;
+    private static final int LINES = 200;
+
+    private final AtomicInteger nextThread = new AtomicInteger();
+    private BenchmarkEnvironment environment;
+    private ScriptLanguage language;
+    private ScriptWorkerPool workerPool;
+    private ExecutorService mainThread;
+    private SinkUser[] users;
+    private AtomicInteger[] sentLines;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        environment = new BenchmarkEnvironment();
+        SinkScripts plugin = environment.getPlugin();
+        setInstance(plugin);
+
+        workerPool = new ScriptWorkerPool(plugin, 4);
+        when(plugin.getWorkerPool()).thenReturn(workerPool);
+
+        // jobs for the main thread run on a single thread, in the order they were handed over
+        mainThread = Executors.newSingleThreadExecutor();
+        Server server = mock(Server.class, RETURNS_DEEP_STUBS);
+        when(server.getLogger()).thenReturn(Logger.getLogger("Server"));
+        BukkitScheduler scheduler = server.getScheduler();
+        when(scheduler.callSyncMethod(any(Plugin.class), any(Callable.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return mainThread.submit((Callable<?>) invocation.getArguments()[1]);
+            }
+        });
+        if (Bukkit.getServer() == null) {
+            Bukkit.setServer(server);
+        }
+
+        language = environment.createLanguage("lua");
+        users = new SinkUser[USERS];
+        sentLines = new AtomicInteger[USERS];
+        for (int i = 0; i < USERS; i++) {
+            users[i] = mock(SinkUser.class, RETURNS_DEEP_STUBS);
+            when(users[i].getName()).thenReturn("stress" + i);
+            ScriptHandler.getInstance().getScriptContext(users[i]).setScriptLanguage(language);
+            sentLines[i] = new AtomicInteger();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void verify() throws Exception {
+        for (int i = 0; i < USERS; i++) {
+            // the lane of a user is processed in order, so every line of the iteration ran once this job is done
+            workerPool.submit(users[i], new Runnable() {
+                @Override
+                public void run() {
+                }
+            }, false).get();
+
+            ScriptContext context = ScriptHandler.getInstance().getScriptContext(users[i]);
+            List<String> lines = context.getCodeBuffer().getLines();
+            int expected = sentLines[i].getAndSet(0);
+            if (lines.size() != expected) {
+                throw new IllegalStateException("Lost " + (expected - lines.size()) + " of " + expected + " lines of " + users[i].getName());
+            }
+
+            Map<String, Integer> lastIndex = new HashMap<>();
+            for (String line : lines) {
+                String[] parts = line.split(" = ");
+                int index = Integer.parseInt(parts[1]);
+                Integer previous = lastIndex.put(parts[0], index);
+                if (previous != null && previous >= index) {
+                    throw new IllegalStateException("Line " + index + " of " + parts[0] + " ran after line " + previous + " for " + users[i].getName());
+                }
+            }
+            context.getCodeBuffer().clear();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (SinkUser user : users) {
+            ScriptContext context = ScriptHandler.getInstance().getScriptContexts().remove(ScriptHandler.getInstance().userToKey(user));
+            if (context != null) {
+                context.releaseExecutor();
+            }
+        }
+        language.disable();
+        workerPool.shutdown();
+        mainThread.shutdownNow();
+        setInstance(null);
+    }
+
+    @Benchmark
+    public void handleLines(ThreadState state) {
+        for (int i = 0; i < LINES; i++) {
+            for (int j = 0; j < USERS; j++) {
+                ScriptHandler.getInstance().handleLine(users[j], state.variable + " = " + i, environment.getPlugin());
+                sentLines[j].incrementAndGet();
+            }
+        }
+    }
+
+    private static void setInstance(SinkScripts plugin) throws ReflectiveOperationException {
+        Field instance = SinkScripts.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        instance.set(null, plugin);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private String variable;
+
+        @Setup(Level.Trial)
+        public void setup(ScriptHandlerStressBenchmark benchmark) {
+            variable = "thread" + benchmark.nextThread.getAndIncrement();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.benchmark;
+
+import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ScriptLanguage#run} and the executor handling of every language.
+ * <p>
+ * Run with {@code java -jar target/benchmarks.jar ScriptLanguageBenchmark}, a single language can be selected with
+ * {@code -p language=groovy}
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScriptLanguageBenchmark {
+
+    @Param({"groovy", "javascript", "lua", "python", "ruby"})
+    public String language;
+
+    private BenchmarkEnvironment environment;
+    private ScriptLanguage scriptLanguage;
+    private ScriptContext context;
+    private String code;
+    private Object value;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        environment = new BenchmarkEnvironment();
+        scriptLanguage = environment.createLanguage(language);
+        context = environment.createContext(scriptLanguage);
+        code = BenchmarkEnvironment.getScript(language);
+        value = new Object();
+
+        // fill the compiled script cache for the warm benchmark
+        scriptLanguage.run(context, code, true, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.releaseExecutor();
+        scriptLanguage.disable();
+    }
+
+    /**
+     * Evaluation of code which has been evaluated before by the same context
+     */
+    @Benchmark
+    public Object warmEval() throws Throwable {
+        return scriptLanguage.run(context, code, true, false);
+    }
+
+    @Benchmark
+    public void setVariable() {
+        scriptLanguage.setVariable(context, "benchmarkValue", value);
+    }
+
+    /**
+     * Checkout and release of an executor, like a context does when its language changes
+     */
+    @Benchmark
+    public Object createExecutor() {
+        Object executor = scriptLanguage.createExecutor(context);
+        scriptLanguage.releaseExecutor(executor);
+        return executor;
+    }
+
+    /**
+     * Evaluation on a new language instance, without any pooled engines or compiled scripts
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 10)
+    public Object coldEval(ColdState state) throws Throwable {
+        return state.scriptLanguage.run(state.context, state.code, true, false);
+    }
+
+    @State(Scope.Thread)
+    public static class ColdState {
+        private ScriptLanguage scriptLanguage;
+        private ScriptContext context;
+        private String code;
+
+        @Setup(Level.Iteration)
+        public void setup(ScriptLanguageBenchmark benchmark) throws Exception {
+            scriptLanguage = benchmark.environment.createLanguage(benchmark.language);
+            context = benchmark.environment.createContext(scriptLanguage);
+            code = BenchmarkEnvironment.getScript(benchmark.language);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            context.releaseExecutor();
+            scriptLanguage.disable();
+        }
+    }
+}
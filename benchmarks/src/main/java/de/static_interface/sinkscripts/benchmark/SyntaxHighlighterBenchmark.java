@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.benchmark;
+
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link ScriptLanguage#formatCode} with the implementations it replaced. The highlighter benchmark runs
+ * without the format cache
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SyntaxHighlighterBenchmark {
+
+    @Param({"groovy", "javascript", "lua", "python", "ruby"})
+    public String language;
+
+    /**
+     * Length of the formatted line in characters
+     */
+    @Param({"80", "1000"})
+    public int length;
+
+    private ScriptLanguage scriptLanguage;
+    private ScriptLanguage cachingScriptLanguage;
+    private String code;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        cachingScriptLanguage = environment.createLanguage(language);
+        environment.getConfig().set("format-cache-size", 0);
+        scriptLanguage = environment.createLanguage(language);
+
+        String script = BenchmarkEnvironment.getScript(language).replace('\n', ' ') + " \"String\" Object ";
+        StringBuilder builder = new StringBuilder(length + script.length());
+        while (builder.length() < length) {
+            builder.append(script);
+        }
+        code = builder.substring(0, length);
+    }
+
+    @Benchmark
+    public String highlighter() {
+        return scriptLanguage.formatCode(code);
+    }
+
+    /**
+     * Formatting of a line which has been formatted before
+     */
+    @Benchmark
+    public String cachedHighlighter() {
+        return cachingScriptLanguage.formatCode(code);
+    }
+
+    @Benchmark
+    public String legacy() {
+        switch (language) {
+            case "groovy":
+                return LegacyFormatCode.groovy(code);
+            case "javascript":
+                return LegacyFormatCode.javascript(code);
+            case "lua":
+                return LegacyFormatCode.lua(code);
+            case "python":
+                return LegacyFormatCode.python(code);
+            case "ruby":
+                return LegacyFormatCode.ruby(code);
+            default:
+                throw new IllegalArgumentException("Unknown language: " + language);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import de.static_interface.sinklibrary.api.event.*;
 import de.static_interface.sinklibrary.api.user.*;
 import de.static_interface.sinklibrary.user.*;
 import de.static_interface.sinkscripts.scriptengine.*;
+import de.static_interface.sinkscripts.scriptengine.scriptcontext.*;
 import org.bukkit.event.*;
 import org.bukkit.event.player.*;
 import org.bukkit.plugin.*;
@@ -86,8 +87,23 @@ public class ScriptChatListener implements Listener {
 
         String name = ScriptHandler.getInstance().userToKey(user);
         ScriptHandler.getInstance().setEnabled(user, false);
-        if (ScriptHandler.getInstance().getScriptContexts().containsKey(name)) {
-            ScriptHandler.getInstance().getScriptContexts().remove(name);
+        final ScriptContext context = ScriptHandler.getInstance().getScriptContexts().remove(name);
+        if (context == null) {
+            return;
+        }
+
+        // a line of the user may still be running with the context, release it on the user's worker lane after it
+        ScriptWorkerPool workerPool = SinkScripts.getInstance().getWorkerPool();
+        Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                context.releaseExecutor();
+            }
+        };
+        if (workerPool == null) {
+            release.run();
+        } else {
+            workerPool.submit(user, release, false);
         }
     }
 }
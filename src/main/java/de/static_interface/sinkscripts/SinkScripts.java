@@ -18,23 +18,31 @@
 package de.static_interface.sinkscripts;
 
 import de.static_interface.sinklibrary.SinkLibrary;
-import de.static_interface.sinklibrary.api.injection.InjectTarget;
-import de.static_interface.sinklibrary.api.injection.Injector;
-import de.static_interface.sinklibrary.util.StringUtil;
 import de.static_interface.sinkscripts.command.ScriptCommand;
+import de.static_interface.sinkscripts.injection.InjectionPatch;
+import de.static_interface.sinkscripts.injection.InjectionPipeline;
+import de.static_interface.sinkscripts.injection.ProbeRegistry;
+import de.static_interface.sinkscripts.scriptengine.AutoStart;
+import de.static_interface.sinkscripts.scriptengine.AutoStartReloader;
+import de.static_interface.sinkscripts.scriptengine.LanguageBootstrap;
 import de.static_interface.sinkscripts.scriptengine.ScriptHandler;
+import de.static_interface.sinkscripts.scriptengine.ScriptWatchdog;
+import de.static_interface.sinkscripts.scriptengine.ScriptWorkerPool;
 import de.static_interface.sinkscripts.scriptengine.scriptcommand.AutostartCommand;
 import de.static_interface.sinkscripts.scriptengine.scriptcommand.ClearCommand;
 import de.static_interface.sinkscripts.scriptengine.scriptcommand.ExecuteCommand;
 import de.static_interface.sinkscripts.scriptengine.scriptcommand.HelpCommand;
 import de.static_interface.sinkscripts.scriptengine.scriptcommand.HistoryCommand;
+import de.static_interface.sinkscripts.scriptengine.scriptcommand.IncrementalCommand;
 import de.static_interface.sinkscripts.scriptengine.scriptcommand.ListLanguageCommand;
 import de.static_interface.sinkscripts.scriptengine.scriptcommand.LoadCommand;
+import de.static_interface.sinkscripts.scriptengine.scriptcommand.ProbeCommand;
 import de.static_interface.sinkscripts.scriptengine.scriptcommand.RunInjectionCommand;
 import de.static_interface.sinkscripts.scriptengine.scriptcommand.SaveCommand;
 import de.static_interface.sinkscripts.scriptengine.scriptcommand.ScriptCommandBase;
 import de.static_interface.sinkscripts.scriptengine.scriptcommand.SetLanguageCommand;
 import de.static_interface.sinkscripts.scriptengine.scriptcommand.SetVariableCommand;
+import de.static_interface.sinkscripts.scriptengine.scriptcommand.StatsCommand;
 import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
 import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
 import de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl.GroovyScript;
@@ -42,13 +50,14 @@ import de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl.JavaScri
 import de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl.LuaScript;
 import de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl.PythonScript;
 import de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl.RubyScript;
-import de.static_interface.sinkscripts.util.Util;
-import org.apache.commons.lang.Validate;
+import de.static_interface.sinkscripts.util.JoinClassLoader;
+import de.static_interface.sinkscripts.util.ScriptFileIndex;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 
@@ -58,6 +67,11 @@ public class SinkScripts extends JavaPlugin {
     public static File INJECTS_FOLDER;
     public static File FRAMEWORK_FOLDER;
     private static SinkScripts instance;
+    private ClassLoader scriptClassLoader;
+    private ScriptWorkerPool workerPool;
+    private LanguageBootstrap bootstrap;
+    private AutoStartReloader autoStartReloader;
+    private List<ScriptContext> autoStartContexts = new ArrayList<>();
 
     public static SinkScripts getInstance() {
         return instance;
@@ -69,6 +83,7 @@ public class SinkScripts extends JavaPlugin {
             return;
         }
         instance = this;
+        saveDefaultConfig();
         SCRIPTS_FOLDER = new File(SinkLibrary.getInstance().getCustomDataFolder(), "scripts");
         FRAMEWORK_FOLDER = new File(SCRIPTS_FOLDER, "framework");
         INJECTS_FOLDER = new File(SinkLibrary.getInstance().getCustomDataFolder(), "injects");
@@ -83,32 +98,54 @@ public class SinkScripts extends JavaPlugin {
         }
 
         setupProperties();
+        workerPool = new ScriptWorkerPool(this, getConfig().getInt("execution.worker-threads", 4));
+        ScriptWatchdog.getInstance().start(this);
         registerCommands();
         registerScriptLanguages();
 
-        for (ScriptLanguage language : ScriptHandler.getInstance().getScriptLanguages()) {
-            language.init();
-        }
+        startBootstrap();
 
         registerListeners();
         initScriptCommands();
+        if (getConfig().getBoolean("hot-reload.enabled", false)) {
+            autoStartReloader = new AutoStartReloader(this);
+        }
         loadAutoStart();
         loadInjects();
     }
 
+    /**
+     * Languages are initialized on their first use. Languages with autostart scripts or the preinit setting are
+     * initialized in parallel now instead, so the autostart and their first use don't have to wait for each of them
+     */
+    private void startBootstrap() {
+        List<ScriptLanguage> languages = new ArrayList<>();
+        for (ScriptLanguage language : ScriptHandler.getInstance().getScriptLanguages()) {
+            if (language.getSetting("preinit", false) || !AutoStart.getFiles(language).isEmpty()) {
+                languages.add(language);
+            }
+        }
+        if (!languages.isEmpty()) {
+            bootstrap = new LanguageBootstrap(this, languages);
+        }
+    }
+
     private void loadInjects() {
         File autoStartDir = new File(INJECTS_FOLDER, "autostart");
         autoStartDir.mkdirs();
 
-        for(File f : autoStartDir.listFiles()){
-            if(!f.getName().endsWith(".patch")) continue;
-            try {
-                runInjection(f);
-            } catch (Exception e) {
-                getLogger().severe("Couldn't run injection: " + f.getName() + ": ");
-                e.printStackTrace();
+        List<File> files = new ArrayList<>();
+        File[] children = autoStartDir.listFiles();
+        if (children != null) {
+            for (File f : children) {
+                if (f.getName().endsWith(".patch")) {
+                    files.add(f);
+                }
             }
         }
+        // patches of the same class are applied in the order of their names
+        Collections.sort(files);
+        new InjectionPipeline(this).run(files);
     }
 
     public void runInjection(String file) throws Exception {
@@ -129,83 +166,7 @@ public class SinkScripts extends JavaPlugin {
     }
 
     public void runInjection(File file) throws Exception {
-        String[] lines = Util.readLines(file);
-
-        String code = "";
-        String targetClass = null;
-        boolean constructor = false;
-        InjectTarget target = InjectTarget.AFTER_METHOD;
-        String method = null;
-        List<Class> methodArgs = new ArrayList<>();
-        boolean codeStart = false;
-
-        for (String line : lines) {
-            if (line.equals("@@INJECT@@")) {
-                codeStart = true;
-                continue;
-            }
-
-            if (!codeStart) {
-                if (line.startsWith("[") && line.endsWith("]")) {
-                    line = line.replaceFirst("\\Q[\\E", "");
-                    line = StringUtil.replaceLast(line, "]", "");
-                    String[] parts = line.split(":", 2);
-                    parts[0] = parts[0].trim();
-                    if(parts[0].equalsIgnoreCase("Constructor")){
-                        constructor = true;
-                    }
-
-                    if(parts.length < 2) continue;
-                    parts[1] = parts[1].trim();
-
-                    switch (parts[0].toLowerCase()){
-                        case "method" :
-                            method = parts[1];
-                            break;
-                        case "at":
-                        case "injecttarget":
-                            target = InjectTarget.valueOf(parts[1].toUpperCase());
-                            break;
-                        case "arg":
-                        case "methodarg":
-                            methodArgs.add(Class.forName(parts[1]));
-                            break;
-                        case "class":
-                        case "targetclass":
-                        case "target":
-                            targetClass = parts[1];
-                            break;
-                    }
-                    continue;
-                }
-
-                if(constructor && method != null){
-                    throw new Exception("Invalid config: construct & method specified at the same time!");
-                }
-
-                continue;
-            }
-
-            if (code.equals("")) {
-                code = line;
-                continue;
-            }
-            code += System.lineSeparator() + line;
-        }
-
-        Validate.notNull(target, "injecttarget is not specified");
-        Validate.notNull(targetClass, "class is not specified");
-        if(!constructor){
-            Validate.notNull(method, "method or constructor is not specified");
-        }
-        Validate.notEmpty(code, "no code found");
-
-        Class clazz = Class.forName(targetClass);
-        if (!constructor) {
-            Injector.injectCode(targetClass, clazz.getClassLoader(), method, methodArgs.toArray(new Class[methodArgs.size()]), code, target);
-        } else {
-            Injector.injectCodeConstructor(targetClass, clazz.getClassLoader(), methodArgs.toArray(new Class[methodArgs.size()]), code, target);
-        }
+        InjectionPatch.parse(file).apply();
     }
 
     private void initScriptCommands() {
@@ -214,16 +175,44 @@ public class SinkScripts extends JavaPlugin {
         ScriptCommandBase.registerCommand(new ExecuteCommand());
         ScriptCommandBase.registerCommand(new HelpCommand());
         ScriptCommandBase.registerCommand(new HistoryCommand());
+        ScriptCommandBase.registerCommand(new IncrementalCommand());
         ScriptCommandBase.registerCommand(new ListLanguageCommand());
         ScriptCommandBase.registerCommand(new LoadCommand());
+        ScriptCommandBase.registerCommand(new ProbeCommand());
         ScriptCommandBase.registerCommand(new RunInjectionCommand());
         ScriptCommandBase.registerCommand(new SaveCommand());
         ScriptCommandBase.registerCommand(new SetLanguageCommand());
         ScriptCommandBase.registerCommand(new SetVariableCommand());
+        ScriptCommandBase.registerCommand(new StatsCommand());
     }
 
     @Override
     public void onDisable() {
+        if (workerPool != null) {
+            workerPool.shutdown();
+            workerPool = null;
+        }
+        if (bootstrap != null) {
+            bootstrap.shutdown();
+            bootstrap = null;
+        }
+        if (autoStartReloader != null) {
+            autoStartReloader.stop();
+            autoStartReloader = null;
+        }
+        ScriptWatchdog.getInstance().stop();
+        ProbeRegistry.getInstance().clear();
+        for (ScriptContext context : autoStartContexts) {
+            context.releaseExecutor();
+        }
+        autoStartContexts = new ArrayList<>();
+        for (ScriptLanguage language : ScriptHandler.getInstance().getScriptLanguages()) {
+            language.disable();
+        }
+        ScriptFileIndex.getInstance().stop();
+        synchronized (this) {
+            scriptClassLoader = null;
+        }
         instance = null;
     }
 
@@ -242,21 +231,63 @@ public class SinkScripts extends JavaPlugin {
         //ScriptHandler.getInstance().register(new PHPScript(this));
     }
 
+    public ScriptWorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
     public ClassLoader getClazzLoader() {
         return getClassLoader();
     }
 
+    /**
+     * @return the class loader shared by all script engines, it will be created once per plugin lifecycle
+     */
+    public synchronized ClassLoader getScriptClassLoader() {
+        if (scriptClassLoader == null) {
+            scriptClassLoader = new JoinClassLoader(SinkLibrary.getInstance().getClazzLoader(), Bukkit.class.getClassLoader(),
+                                                    getClazzLoader(), SinkLibrary.class.getClassLoader());
+        }
+        return scriptClassLoader;
+    }
+
+    /**
+     * Forget the classes the script class loader couldn't find, another plugin may provide them now
+     */
+    public synchronized void clearMissingClasses() {
+        if (scriptClassLoader instanceof JoinClassLoader) {
+            ((JoinClassLoader) scriptClassLoader).clearMissingClasses();
+        }
+    }
+
     public void loadAutoStart() {
         loadAutoStart(getConsoleContext());
     }
 
     public void loadAutoStart(ScriptContext executorContext) {
-        ScriptContext localContext = new ScriptContext(executorContext);
+        List<ScriptContext> contexts = new ArrayList<>();
         for (ScriptLanguage language : ScriptHandler.getInstance().getScriptLanguages()) {
-            localContext.setScriptLanguage(language);
+            if (AutoStart.getFiles(language).isEmpty()) {
+                // don't initialize languages only for an empty autostart directory
+                continue;
+            }
+            if (bootstrap != null && !bootstrap.await(language)) {
+                getLogger().warning("Skipping the autostart scripts of " + language.getName());
+                continue;
+            }
+            // every language gets its own executor, it is released when the autostart scripts are run again
+            ScriptContext localContext = new ScriptContext(executorContext.getUser(), language, executorContext.getPlugin());
             if(localContext.getExecutor() == null) continue; //not supported language
-            language.onAutoStart(localContext);
+            contexts.add(localContext);
+        }
+        new AutoStart(this, contexts).run();
+        if (autoStartReloader != null) {
+            autoStartReloader.track(contexts);
+        }
+
+        for (ScriptContext context : autoStartContexts) {
+            context.releaseExecutor();
         }
+        autoStartContexts = contexts;
     }
 
     private boolean checkDependencies() {
@@ -271,6 +302,7 @@ public class SinkScripts extends JavaPlugin {
 
     private void registerListeners() {
         Bukkit.getPluginManager().registerEvents(new ScriptChatListener(this), this);
+        Bukkit.getPluginManager().registerEvents(new ScriptClassLoaderListener(this), this);
     }
 
     private void registerCommands() {
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.injection;
+
+import de.static_interface.sinklibrary.api.injection.InjectTarget;
+import de.static_interface.sinklibrary.api.injection.Injector;
+import de.static_interface.sinklibrary.util.StringUtil;
+import de.static_interface.sinkscripts.util.Util;
+import org.apache.commons.lang.Validate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parsed .patch file. Patches start with a header of {@code [key: value]} lines, followed by {@code @@INJECT@@}
+ * and the code which should be injected:
+ * <pre>
+ * [class: org.bukkit.craftbukkit.CraftServer]
+ * [method: reload]
+ * [at: BEFORE_METHOD]
+ * [arg: java.lang.String]
+ * &#64;&#64;INJECT&#64;&#64;
+ * System.out.println("Reloading");
+ * </pre>
+ * Use {@code [constructor]} instead of {@code [method: ...]} to inject into a constructor.
+ */
+public class InjectionPatch {
+
+    private static final String CODE_START = "@@INJECT@@";
+
+    private final String name;
+    private final String targetClass;
+    private final boolean constructor;
+    private final String method;
+    private final List<String> methodArgs;
+    private final InjectTarget target;
+    private final String code;
+
+    public InjectionPatch(String name, String targetClass, boolean constructor, String method, List<String> methodArgs,
+                          InjectTarget target, String code) {
+        this.name = name;
+        this.targetClass = targetClass;
+        this.constructor = constructor;
+        this.method = method;
+        this.methodArgs = Collections.unmodifiableList(new ArrayList<>(methodArgs));
+        this.target = target;
+        this.code = code;
+    }
+
+    public static InjectionPatch parse(File file) throws IOException {
+        return parse(file.getName(), Util.readLines(file));
+    }
+
+    /**
+     * @param name the name of the patch, e.g. its file name
+     * @param lines the lines of the patch
+     * @return the patch
+     * @throws IllegalArgumentException if the patch is invalid
+     */
+    public static InjectionPatch parse(String name, String[] lines) {
+        StringBuilder code = new StringBuilder();
+        String targetClass = null;
+        boolean constructor = false;
+        InjectTarget target = InjectTarget.AFTER_METHOD;
+        String method = null;
+        List<String> methodArgs = new ArrayList<>();
+        boolean codeStart = false;
+
+        for (String line : lines) {
+            if (!codeStart && line.equals(CODE_START)) {
+                codeStart = true;
+                continue;
+            }
+
+            if (codeStart) {
+                if (code.length() > 0) {
+                    code.append(System.lineSeparator());
+                }
+                code.append(line);
+                continue;
+            }
+
+            if (!line.startsWith("[") || !line.endsWith("]")) {
+                continue;
+            }
+
+            line = line.replaceFirst("\\Q[\\E", "");
+            line = StringUtil.replaceLast(line, "]", "");
+            String[] parts = line.split(":", 2);
+            parts[0] = parts[0].trim();
+            if (parts[0].equalsIgnoreCase("Constructor")) {
+                constructor = true;
+            }
+
+            if (parts.length < 2) {
+                continue;
+            }
+            parts[1] = parts[1].trim();
+
+            switch (parts[0].toLowerCase()) {
+                case "method":
+                    method = parts[1];
+                    break;
+                case "at":
+                case "injecttarget":
+                    target = InjectTarget.valueOf(parts[1].toUpperCase());
+                    break;
+                case "arg":
+                case "methodarg":
+                    methodArgs.add(parts[1]);
+                    break;
+                case "class":
+                case "targetclass":
+                case "target":
+                    targetClass = parts[1];
+                    break;
+            }
+        }
+
+        Validate.isTrue(!constructor || method == null, "Invalid config: construct & method specified at the same time!");
+        Validate.notNull(targetClass, "class is not specified");
+        if (!constructor) {
+            Validate.notNull(method, "method or constructor is not specified");
+        }
+        Validate.notEmpty(code.toString(), "no code found");
+
+        return new InjectionPatch(name, targetClass, constructor, method, methodArgs, target, code.toString());
+    }
+
+    /**
+     * Resolve the classes of the patch and inject it
+     */
+    public void apply() throws ClassNotFoundException {
+        Class<?>[] args = new Class<?>[methodArgs.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = Class.forName(methodArgs.get(i));
+        }
+        apply(Class.forName(targetClass), args);
+    }
+
+    /**
+     * Inject the patch
+     * @param clazz the target class
+     * @param args the classes of the {@link #getMethodArgs()}
+     */
+    public void apply(Class<?> clazz, Class<?>[] args) {
+        if (!constructor) {
+            Injector.injectCode(targetClass, clazz.getClassLoader(), method, args, code, target);
+        } else {
+            Injector.injectCodeConstructor(targetClass, clazz.getClassLoader(), args, code, target);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTargetClass() {
+        return targetClass;
+    }
+
+    public boolean isConstructor() {
+        return constructor;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the class names of the method or constructor arguments
+     */
+    public List<String> getMethodArgs() {
+        return methodArgs;
+    }
+
+    public InjectTarget getTarget() {
+        return target;
+    }
+
+    public String getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.injection;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Applies many patches at once, e.g. the autostart injections.
+ * <p>
+ * The pipeline has three stages: all patches are parsed in parallel, then grouped by their target class, whose
+ * classes (and the classes of the arguments) are only resolved once per pipeline. At last the patches of every class
+ * are applied one after another, in the order of the given files. A patch which fails only affects itself, a target
+ * class which can't be found only affects its own patches. The time of every stage is logged.
+ */
+public class InjectionPipeline {
+
+    private final Plugin plugin;
+    private final Map<String, Class<?>> classes = new HashMap<>();
+
+    public InjectionPipeline(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Run the pipeline on the calling thread, only the parsing is done on other threads
+     * @param files the .patch files
+     * @return the amount of patches which have been applied
+     */
+    public int run(List<File> files) {
+        if (files.isEmpty()) {
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        int threads = plugin.getConfig().getInt("injection.parse-threads", 0);
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        threads = Math.min(threads, files.size());
+        List<InjectionPatch> patches = parse(files, threads);
+        long parsed = System.nanoTime();
+
+        Map<String, List<InjectionPatch>> groups = new LinkedHashMap<>();
+        for (InjectionPatch patch : patches) {
+            List<InjectionPatch> group = groups.get(patch.getTargetClass());
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(patch.getTargetClass(), group);
+            }
+            group.add(patch);
+        }
+
+        int applied = 0;
+        long resolveNanos = 0;
+        long applyNanos = 0;
+        for (Map.Entry<String, List<InjectionPatch>> group : groups.entrySet()) {
+            long groupStart = System.nanoTime();
+            Class<?> clazz;
+            try {
+                clazz = resolve(group.getKey());
+            } catch (ClassNotFoundException e) {
+                plugin.getLogger().severe("Couldn't find class " + group.getKey() + ", skipping " + group.getValue().size() + " injections");
+                continue;
+            } finally {
+                resolveNanos += System.nanoTime() - groupStart;
+            }
+
+            long applyStart = System.nanoTime();
+            for (InjectionPatch patch : group.getValue()) {
+                try {
+                    patch.apply(clazz, resolveArgs(patch));
+                    applied++;
+                } catch (Exception e) {
+                    plugin.getLogger().log(Level.SEVERE, "Couldn't run injection: " + patch.getName() + ": ", e);
+                }
+            }
+            long groupApplyNanos = System.nanoTime() - applyStart;
+            applyNanos += groupApplyNanos;
+            plugin.getLogger().info("Injections: applied " + group.getValue().size() + " patches to " + group.getKey()
+                                    + " in " + toMillis(groupApplyNanos) + " ms");
+        }
+
+        plugin.getLogger().info("Injections: applied " + applied + " of " + files.size() + " patches to " + groups.size()
+                                + " classes in " + toMillis(System.nanoTime() - start) + " ms (parse "
+                                + toMillis(parsed - start) + " ms on " + threads + " threads, resolve "
+                                + toMillis(resolveNanos) + " ms, apply " + toMillis(applyNanos) + " ms)");
+        return applied;
+    }
+
+    private List<InjectionPatch> parse(List<File> files, int threads) {
+        ExecutorService parser = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SinkScripts Injection Parser #" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            List<Future<InjectionPatch>> futures = new ArrayList<>();
+            for (final File file : files) {
+                futures.add(parser.submit(new Callable<InjectionPatch>() {
+                    @Override
+                    public InjectionPatch call() throws Exception {
+                        return InjectionPatch.parse(file);
+                    }
+                }));
+            }
+
+            List<InjectionPatch> patches = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    patches.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    plugin.getLogger().log(Level.SEVERE, "Couldn't parse injection: " + files.get(i).getName() + ": ", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return patches;
+        } finally {
+            parser.shutdownNow();
+        }
+    }
+
+    private Class<?>[] resolveArgs(InjectionPatch patch) throws ClassNotFoundException {
+        List<String> names = patch.getMethodArgs();
+        Class<?>[] args = new Class<?>[names.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = resolve(names.get(i));
+        }
+        return args;
+    }
+
+    private Class<?> resolve(String name) throws ClassNotFoundException {
+        Class<?> clazz = classes.get(name);
+        if (clazz == null) {
+            clazz = Class.forName(name);
+            classes.put(name, clazz);
+        }
+        return clazz;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.injection;
+
+import de.static_interface.sinklibrary.api.injection.InjectTarget;
+import de.static_interface.sinkscripts.util.Util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures how often and how long server methods run, by injecting timing probes at the start and the end of them.
+ * <p>
+ * The injected code runs in the class loader of the server, which can't see the classes of this plugin. So the
+ * probes are published as {@link Runnable}s in the system properties and the injected code only uses JDK classes to
+ * call them. Calls are recorded in lock-free counters and a histogram with a bucket for every power of two
+ * nanoseconds.
+ * <p>
+ * Looking up the probe isn't lock-free: the system properties are a synchronized {@link java.util.Hashtable}, so every
+ * probed call takes their lock twice, at its start and at its end. Probed methods which run on many threads at once
+ * wait for each other and for every other caller of {@link System#getProperty(String)}, the wait at the end is
+ * included in the measured time. The injected code can't keep a reference to the probe, the injector doesn't add
+ * fields, and the JDK has no lock-free registry which code of any class loader can reach.
+ * <p>
+ * Injected code can't be removed again. After {@link #clear()} it stays in the methods, but doesn't do anything.
+ * The properties are named after the hash of the method, so the code injected by a previous instance of the plugin
+ * calls the probe of the same method again after a reload, instead of being injected a second time.
+ * <p>
+ * The code injected at the end of a method isn't run when the method throws an exception. The start of such a call
+ * stays on the stack of its thread, but it doesn't disturb later calls: every exit is paired with the latest enter.
+ * The stack is reset when it is full, so the stale starts don't stop the measurement.
+ */
+public class ProbeRegistry {
+
+    private static final String PROPERTY_PREFIX = "sinkscripts.probe.";
+    // the stack of a thread is reset when it gets deeper, e.g. because calls threw exceptions
+    private static final int MAX_DEPTH = 32;
+
+    private static ProbeRegistry instance;
+
+    private final Map<String, Probe> probes = new ConcurrentHashMap<>();
+
+    public static synchronized ProbeRegistry getInstance() {
+        if (instance == null) {
+            instance = new ProbeRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Inject a probe into a method, nothing happens if the method already has a probe
+     * @param className the class of the method
+     * @param method the name of the method
+     * @param methodArgs the class names of the arguments of the method
+     * @return the probe
+     */
+    public synchronized Probe add(String className, String method, List<String> methodArgs) throws ClassNotFoundException {
+        String id = className + "#" + method + "(" + join(methodArgs) + ")";
+        Probe probe = probes.get(id);
+        if (probe != null) {
+            return probe;
+        }
+
+        probe = new Probe(id, PROPERTY_PREFIX + Util.hash(id));
+        System.getProperties().put(probe.key + ".enter", probe.enter);
+        System.getProperties().put(probe.key + ".exit", probe.exit);
+        if (System.getProperty(probe.key + ".injected") == null) {
+            try {
+                new InjectionPatch("probe " + id, className, false, method, methodArgs, InjectTarget.BEFORE_METHOD,
+                                   getCallCode(probe.key + ".enter")).apply();
+                new InjectionPatch("probe " + id, className, false, method, methodArgs, InjectTarget.AFTER_METHOD,
+                                   getCallCode(probe.key + ".exit")).apply();
+            } catch (ClassNotFoundException | RuntimeException e) {
+                unpublish(probe);
+                throw e;
+            }
+            // the injected code outlives this instance of the plugin
+            System.setProperty(probe.key + ".injected", "true");
+        }
+
+        probes.put(id, probe);
+        return probe;
+    }
+
+    private static String getCallCode(String property) {
+        return "{ Object probe = System.getProperties().get(\"" + property + "\");"
+               + " if (probe != null) { ((Runnable) probe).run(); } }";
+    }
+
+    private static String join(List<String> parts) {
+        StringBuilder builder = new StringBuilder();
+        for (String part : parts) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(part);
+        }
+        return builder.toString();
+    }
+
+    public Collection<Probe> getProbes() {
+        return new ArrayList<>(probes.values());
+    }
+
+    /**
+     * Reset the recorded calls of all probes
+     */
+    public void reset() {
+        for (Probe probe : probes.values()) {
+            probe.reset();
+        }
+    }
+
+    /**
+     * Disable all probes. Must be called when the plugin gets disabled, the system properties would keep its classes
+     * loaded otherwise
+     */
+    public synchronized void clear() {
+        for (Probe probe : probes.values()) {
+            unpublish(probe);
+        }
+        probes.clear();
+    }
+
+    private static void unpublish(Probe probe) {
+        System.getProperties().remove(probe.key + ".enter");
+        System.getProperties().remove(probe.key + ".exit");
+    }
+
+    public static class Probe {
+        private final String id;
+        private final String key;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong resets = new AtomicLong();
+        // bucket i counts calls which took less than 2^(i+1) ns
+        private final AtomicLongArray histogram = new AtomicLongArray(64);
+
+        private final ThreadLocal<long[]> starts = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                // index 0 is the depth
+                return new long[MAX_DEPTH + 1];
+            }
+        };
+
+        private final Runnable enter = new Runnable() {
+            @Override
+            public void run() {
+                long[] stack = starts.get();
+                if (stack[0] >= MAX_DEPTH) {
+                    // filled by calls which threw, their exits never ran
+                    stack[0] = 0;
+                    resets.incrementAndGet();
+                }
+                int depth = (int) ++stack[0];
+                stack[depth] = System.nanoTime();
+            }
+        };
+
+        private final Runnable exit = new Runnable() {
+            @Override
+            public void run() {
+                long[] stack = starts.get();
+                int depth = (int) stack[0];
+                if (depth <= 0) {
+                    // the probe has been added while the method was running or the stack has been reset
+                    return;
+                }
+                stack[0]--;
+                record(System.nanoTime() - stack[depth]);
+            }
+        };
+
+        private Probe(String id, String key) {
+            this.id = id;
+            this.key = key;
+        }
+
+        private void record(long nanos) {
+            calls.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            histogram.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(1, nanos)));
+
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        private void reset() {
+            calls.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+            resets.set(0);
+            for (int i = 0; i < histogram.length(); i++) {
+                histogram.set(i, 0);
+            }
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * @return how often the stack of a thread had to be reset, because the method threw exceptions
+         */
+        public long getResets() {
+            return resets.get();
+        }
+
+        /**
+         * @param percentile the percentile, e.g. 0.99
+         * @return the upper bound of the histogram bucket which contains the percentile, 0 if nothing was recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            long total = 0;
+            long[] counts = new long[histogram.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = histogram.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i >= 62 ? Long.MAX_VALUE : 1L << (i + 1);
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+}
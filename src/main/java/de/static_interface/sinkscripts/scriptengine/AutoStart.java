@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine;
+
+import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
+import de.static_interface.sinkscripts.util.Util;
+import org.bukkit.ChatColor;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the autostart scripts of one or more languages.
+ * <p>
+ * The scripts of all languages are loaded and compiled in parallel, while the calling thread runs them one after
+ * another as soon as they are compiled: languages in the given order, files of a language ordered by their numeric
+ * prefix (e.g. {@code 10-setup.groovy} runs before {@code 20-commands.groovy}) and then by their path. Scripts are
+ * only run on the calling thread, as they usually register listeners or use other parts of the Bukkit API.
+ */
+public class AutoStart {
+
+    private final Plugin plugin;
+    private final List<ScriptContext> contexts;
+    private final List<Task> tasks = new ArrayList<>();
+
+    /**
+     * @param plugin the plugin
+     * @param contexts a context for every language whose autostart scripts should be run
+     */
+    public AutoStart(Plugin plugin, List<ScriptContext> contexts) {
+        this.plugin = plugin;
+        this.contexts = contexts;
+    }
+
+    public void run() {
+        long start = System.nanoTime();
+
+        int threads = plugin.getConfig().getInt("autostart.compile-threads", 0);
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        ExecutorService compiler = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SinkScripts AutoStart #" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            for (ScriptContext context : contexts) {
+                for (File file : getFiles(context.getScriptLanguage())) {
+                    Task task = new Task(context, file);
+                    task.code = compiler.submit(task);
+                    tasks.add(task);
+                }
+            }
+
+            for (Task task : tasks) {
+                task.run();
+            }
+        } finally {
+            compiler.shutdownNow();
+        }
+
+        report(System.nanoTime() - start, threads);
+    }
+
+    /**
+     * @return the autostart files of the language in the order they should be run
+     */
+    public static List<File> getFiles(ScriptLanguage language) {
+        List<File> files = new ArrayList<>();
+        collectFiles(language, language.AUTOSTART_DIRECTORY, files);
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                int result = Long.compare(getOrder(o1), getOrder(o2));
+                if (result != 0) {
+                    return result;
+                }
+                return o1.getPath().compareTo(o2.getPath());
+            }
+        });
+        return files;
+    }
+
+    private static void collectFiles(ScriptLanguage language, File directory, List<File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File file : children) {
+            if (file.isDirectory()) {
+                collectFiles(language, file, files);
+            } else if (Util.getFileExtension(file).equals(language.getFileExtension())) {
+                files.add(file);
+            }
+        }
+    }
+
+    /**
+     * @return the numeric prefix of the file name, files without prefix run last
+     */
+    private static long getOrder(File file) {
+        String name = file.getName();
+        int end = 0;
+        while (end < name.length() && end < 18 && Character.isDigit(name.charAt(end))) {
+            end++;
+        }
+        if (end == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Long.parseLong(name.substring(0, end));
+    }
+
+    private void report(long totalNanos, int threads) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        List<Task> sorted = new ArrayList<>(tasks);
+        Collections.sort(sorted, new Comparator<Task>() {
+            @Override
+            public int compare(Task o1, Task o2) {
+                return Long.compare(o2.compileNanos + o2.runNanos, o1.compileNanos + o1.runNanos);
+            }
+        });
+
+        plugin.getLogger().info("AutoStart: ran " + tasks.size() + " scripts in " + toMillis(totalNanos) + " ms, compiled on " + threads + " threads");
+        for (Task task : sorted) {
+            plugin.getLogger().info("AutoStart: " + task.language.getName() + "/" + task.file.getName() + ": load and compile "
+                                    + toMillis(task.compileNanos) + " ms, run " + toMillis(task.runNanos) + " ms"
+                                    + (task.failed ? " (failed)" : ""));
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static class Task implements Callable<String> {
+        private final ScriptContext context;
+        private final ScriptLanguage language;
+        private final File file;
+        private Future<String> code;
+        private volatile long compileNanos;
+        private long runNanos;
+        private boolean failed;
+
+        private Task(ScriptContext context, File file) {
+            this.context = context;
+            this.language = context.getScriptLanguage();
+            this.file = file;
+        }
+
+        /**
+         * Load and compile the script, runs on the compiler threads
+         */
+        @Override
+        public String call() throws Exception {
+            long start = System.nanoTime();
+            try {
+                String code = language.loadScript(context, file);
+                language.precompile(context, code);
+                return code;
+            } finally {
+                compileNanos = System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * Run the script, runs on the calling thread
+         */
+        private void run() {
+            context.getUser().sendMessage(
+                    ChatColor.DARK_GREEN + "[AutoStart] " + ChatColor.GOLD + language.getName() + ChatColor.WHITE + ": " + file.getName());
+
+            long start = System.nanoTime();
+            try {
+                String script;
+                try {
+                    script = code.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+                start = System.nanoTime();
+                ScriptHandler.getInstance().setDefaultVariables(context);
+                language.run(context, file, script);
+            } catch (Throwable thr) {
+                failed = true;
+                Util.reportException(context.getUser(), thr);
+            } finally {
+                runNanos = System.nanoTime() - start;
+            }
+        }
+    }
+}
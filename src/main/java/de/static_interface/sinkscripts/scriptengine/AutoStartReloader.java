@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine;
+
+import de.static_interface.sinklibrary.SinkLibrary;
+import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
+import de.static_interface.sinkscripts.util.ScriptFileIndex;
+import de.static_interface.sinkscripts.util.Util;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an autostart script again when it has been changed.
+ * <p>
+ * Changes are reported by the {@link ScriptFileIndex}, so only the autostart directories of initialized languages are
+ * watched. Editors often write a file several times when saving it, so a script is only run once no change happened
+ * for {@code hot-reload.debounce-ms}. Scripts whose content didn't change since they ran last are skipped. Scripts
+ * run on the main thread, in the same context their language used for the autostart.
+ */
+public class AutoStartReloader implements ScriptFileIndex.Listener {
+
+    private final Plugin plugin;
+    private final long debounceMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Map<ScriptLanguage, ScriptContext> contexts = new ConcurrentHashMap<>();
+    private final Map<File, String> hashes = new ConcurrentHashMap<>();
+    private final Map<File, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+
+    public AutoStartReloader(Plugin plugin) {
+        this.plugin = plugin;
+        debounceMillis = Math.max(0, plugin.getConfig().getLong("hot-reload.debounce-ms", 500));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SinkScripts Hot Reload");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        ScriptFileIndex.getInstance().addListener(this);
+    }
+
+    /**
+     * Remember the contexts and scripts of an autostart run, so unchanged scripts aren't run again. Contexts of
+     * previous runs are released
+     * @param contexts the contexts the autostart scripts have been run with
+     */
+    public void track(List<ScriptContext> contexts) {
+        for (ScriptContext context : contexts) {
+            ScriptLanguage language = context.getScriptLanguage();
+            ScriptContext previous = this.contexts.put(language, context);
+            if (previous != null && previous != context) {
+                previous.releaseExecutor();
+            }
+            for (File file : AutoStart.getFiles(language)) {
+                try {
+                    hashes.put(file.getAbsoluteFile(), Util.hash(Util.loadFile(file)));
+                } catch (IOException ignored) {
+                    // will be run when it gets changed
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onFileChanged(final ScriptLanguage language, File changedFile) {
+        final File file = changedFile.getAbsoluteFile();
+        if (!file.toPath().startsWith(language.AUTOSTART_DIRECTORY.getAbsoluteFile().toPath())) {
+            return;
+        }
+
+        ScheduledFuture<?> future = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pending.remove(file);
+                reload(language, file);
+            }
+        }, debounceMillis, TimeUnit.MILLISECONDS);
+
+        ScheduledFuture<?> previous = pending.put(file, future);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    private void reload(final ScriptLanguage language, final File file) {
+        final String code;
+        try {
+            code = Util.loadFile(file);
+        } catch (IOException e) {
+            // deleted again or not readable yet, a later change will be reported again
+            return;
+        }
+
+        final String hash = Util.hash(code);
+        if (hash.equals(hashes.get(file))) {
+            return;
+        }
+
+        Bukkit.getScheduler().runTask(plugin, new Runnable() {
+            @Override
+            public void run() {
+                ScriptContext context = getContext(language);
+                if (context.getExecutor() == null) {
+                    return;
+                }
+
+                hashes.put(file, hash);
+                plugin.getLogger().info("Hot reload: running " + language.getName() + "/" + file.getName());
+                try {
+                    ScriptHandler.getInstance().setDefaultVariables(context);
+                    language.run(context, file, language.loadScript(context, file));
+                } catch (Throwable throwable) {
+                    Util.reportException(context.getUser(), throwable);
+                }
+            }
+        });
+    }
+
+    private ScriptContext getContext(ScriptLanguage language) {
+        ScriptContext context = contexts.get(language);
+        if (context == null) {
+            // the language didn't have autostart scripts before
+            context = new ScriptContext(SinkLibrary.getInstance().getConsoleUser(), language, plugin);
+            contexts.put(language, context);
+        }
+        return context;
+    }
+
+    public void stop() {
+        ScriptFileIndex.getInstance().removeListener(this);
+        scheduler.shutdownNow();
+        pending.clear();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine;
+
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Initializes languages in parallel while the plugin gets enabled.
+ * <p>
+ * The runtimes of the languages (e.g. Jython, JRuby or Groovy) are independent of each other and slow to bootstrap,
+ * so every language is initialized on its own thread. A language which fails or takes too long doesn't affect the
+ * others: {@link #await(ScriptLanguage)} gives up after {@code bootstrap.timeout-ms}, the language keeps initializing
+ * in the background and can be used as soon as it is ready.
+ */
+public class LanguageBootstrap {
+
+    private final Plugin plugin;
+    private final ExecutorService executor;
+    private final Map<ScriptLanguage, Task> tasks = new HashMap<>();
+
+    /**
+     * Start initializing the languages
+     * @param plugin the plugin
+     * @param languages the languages which should be initialized
+     */
+    public LanguageBootstrap(Plugin plugin, Collection<ScriptLanguage> languages) {
+        this.plugin = plugin;
+
+        int threads = plugin.getConfig().getInt("bootstrap.threads", 0);
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        threads = Math.max(1, Math.min(threads, languages.size()));
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SinkScripts Bootstrap #" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        for (ScriptLanguage language : languages) {
+            Task task = new Task(language);
+            task.future = executor.submit(task);
+            tasks.put(language, task);
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Wait until the language has been initialized, but not longer than its {@code bootstrap.timeout-ms} since its
+     * initialization has been started
+     * @param language the language
+     * @return true if the language is ready, languages which haven't been started by this bootstrap are initialized
+     *         on the calling thread
+     */
+    public boolean await(ScriptLanguage language) {
+        Task task = tasks.get(language);
+        if (task == null) {
+            return language.init();
+        }
+
+        long timeout = language.getSetting("bootstrap.timeout-ms", 60000);
+        try {
+            if (timeout <= 0) {
+                task.future.get();
+            } else {
+                long elapsed = System.nanoTime() - task.submitted;
+                task.future.get(Math.max(0, TimeUnit.MILLISECONDS.toNanos(timeout) - elapsed), TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException e) {
+            plugin.getLogger().warning(language.getName() + " didn't finish initializing within " + timeout + " ms, "
+                                       + "it will be available once it is ready");
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            // init() doesn't throw, but a runtime may still fail with an error
+            e.getCause().printStackTrace();
+            return false;
+        }
+        return language.getState() == ScriptLanguage.State.READY;
+    }
+
+    /**
+     * Stop initializations which are still running, e.g. because the plugin gets disabled
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private class Task implements Runnable {
+        private final ScriptLanguage language;
+        private final long submitted = System.nanoTime();
+        private Future<?> future;
+
+        private Task(ScriptLanguage language) {
+            this.language = language;
+        }
+
+        @Override
+        public void run() {
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitted);
+            if (language.init()) {
+                plugin.getLogger().info("Initialized " + language.getName() + " in "
+                                        + TimeUnit.NANOSECONDS.toMillis(language.getInitNanos()) + " ms (waited " + waited + " ms for a thread)");
+            } else {
+                plugin.getLogger().warning("Couldn't initialize " + language.getName() + " after "
+                                           + TimeUnit.NANOSECONDS.toMillis(language.getInitNanos()) + " ms");
+            }
+        }
+    }
+}
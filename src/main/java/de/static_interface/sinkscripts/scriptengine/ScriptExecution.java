@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine;
+
+import de.static_interface.sinklibrary.api.user.SinkUser;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
+
+import javax.annotation.Nullable;
+
+/**
+ * A running evaluation of script code, created by {@link ScriptWatchdog#watch}.
+ * <p>
+ * Languages which support safe points call {@link #checkpoint()} in loops of the script, so the watchdog can stop it
+ * even if it doesn't react to interrupts, on the main thread too
+ */
+public class ScriptExecution {
+
+    private static final ThreadLocal<ScriptExecution> current = new ThreadLocal<>();
+
+    private final ScriptWatchdog watchdog;
+    private final ScriptExecution previous;
+    private final Thread thread;
+    private final SinkUser user;
+    private final ScriptLanguage language;
+    private final String code;
+    private final boolean mainThread;
+    private final long startNanos;
+    private final long startCpuNanos;
+    private final long startAllocatedBytes;
+
+    private boolean finished;
+    private boolean abandoned;
+    private long interruptedAt;
+    private volatile boolean stopRequested;
+
+    ScriptExecution(ScriptWatchdog watchdog, SinkUser user, ScriptLanguage language, String code, boolean mainThread, long startCpuNanos,
+                    long startAllocatedBytes) {
+        this.watchdog = watchdog;
+        this.thread = Thread.currentThread();
+        this.user = user;
+        this.language = language;
+        this.code = code;
+        this.mainThread = mainThread;
+        this.startNanos = System.nanoTime();
+        this.startCpuNanos = startCpuNanos;
+        this.startAllocatedBytes = startAllocatedBytes;
+        previous = current.get();
+        current.set(this);
+    }
+
+    /**
+     * @return the innermost execution on the current thread
+     */
+    @Nullable
+    public static ScriptExecution getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * Safe point for scripts running on the current thread, see {@link #check()}
+     * @return true if the script should stop
+     */
+    public static boolean checkpoint() {
+        ScriptExecution execution = current.get();
+        return execution == null ? TickBudget.checkpoint() : execution.check();
+    }
+
+    /**
+     * Instance version of {@link #checkpoint()}, for languages which can't call static methods of plugin classes. Also
+     * suspends the script if its {@link TickBudget} was used up
+     * @return true if the watchdog stopped the execution or its budget was cancelled
+     */
+    public boolean check() {
+        return stopRequested || TickBudget.checkpoint();
+    }
+
+    /**
+     * Must be called by the executing thread when the evaluation is done
+     */
+    public void finish() {
+        boolean wasInterrupted;
+        synchronized (this) {
+            finished = true;
+            wasInterrupted = interruptedAt != 0 && !mainThread;
+        }
+        watchdog.remove(this);
+        if (current.get() == this) {
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+        }
+
+        if (wasInterrupted) {
+            // don't leak the interrupt to whatever the thread does next
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Stop the execution at its next safe point and interrupt the executing thread. The main thread is never
+     * interrupted, only the safe points stop scripts running on it
+     * @return false if the execution finished or was interrupted already
+     */
+    synchronized boolean interrupt() {
+        if (finished || interruptedAt != 0) {
+            return false;
+        }
+        interruptedAt = System.nanoTime();
+        stopRequested = true;
+        if (!mainThread) {
+            thread.interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * Give up on an execution which didn't stop after being interrupted. Its thread keeps running, but the execution
+     * isn't watched anymore
+     * @return false if the execution finished or was abandoned already
+     */
+    synchronized boolean abandon() {
+        if (finished || abandoned) {
+            return false;
+        }
+        abandoned = true;
+        return true;
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    public SinkUser getUser() {
+        return user;
+    }
+
+    public ScriptLanguage getLanguage() {
+        return language;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public boolean isMainThread() {
+        return mainThread;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getStartCpuNanos() {
+        return startCpuNanos;
+    }
+
+    /**
+     * @return the bytes allocated by the thread when the execution started or -1 if they aren't counted
+     */
+    public long getStartAllocatedBytes() {
+        return startAllocatedBytes;
+    }
+
+    public synchronized boolean isAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of the interruption or 0 if it hasn't been interrupted
+     */
+    public synchronized long getInterruptedAt() {
+        return interruptedAt;
+    }
+}
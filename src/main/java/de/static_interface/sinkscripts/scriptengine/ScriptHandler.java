@@ -19,36 +19,49 @@ package de.static_interface.sinkscripts.scriptengine;
 
 import de.static_interface.sinklibrary.api.user.SinkUser;
 import de.static_interface.sinklibrary.user.IngameUser;
-import de.static_interface.sinklibrary.util.StringUtil;
 import de.static_interface.sinkscripts.SinkScripts;
 import de.static_interface.sinkscripts.scriptengine.scriptcommand.ScriptCommandBase;
+import de.static_interface.sinkscripts.scriptengine.scriptcontext.CodeBuffer;
 import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
 import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
 import de.static_interface.sinkscripts.util.Util;
+import org.apache.commons.cli.CommandLine;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.util.BlockIterator;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the script contexts of the users and dispatches their input.
+ * <p>
+ * The maps and sets of the handler are accessed by the async chat threads, the main thread and the worker threads,
+ * so they are concurrent. The contexts themselves aren't thread safe: a context is only used by the worker lane of
+ * its user (see {@link ScriptWorkerPool}), which runs the lines of a user one after another.
+ */
 public class ScriptHandler {
     private static ScriptHandler instance;
 
-    private HashMap<String, ScriptContext> contextInstances; // PlayerName - Shell Instance
-    private ArrayList<String> enabledUsers = new ArrayList<>();
-    private HashMap<String, ScriptLanguage> scriptLanguages;
+    private final ConcurrentMap<String, ScriptContext> contextInstances; // PlayerName - Shell Instance
+    private final Set<String> enabledUsers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentMap<String, ScriptLanguage> scriptLanguages;
 
     public ScriptHandler(){
         instance = this;
-        contextInstances = new HashMap<>();
-        scriptLanguages = new HashMap<>();
+        contextInstances = new ConcurrentHashMap<>();
+        scriptLanguages = new ConcurrentHashMap<>();
     }
 
     public static ScriptHandler getInstance() {
@@ -96,7 +109,6 @@ public class ScriptHandler {
 
     public void register(ScriptLanguage scriptLanguage) {
         scriptLanguages.put(scriptLanguage.getFileExtension(), scriptLanguage);
-        scriptLanguage.preInit();
     }
 
     public void handleCommand(ScriptContext context, String cmd, String[] args, String label, String nl) {
@@ -114,20 +126,26 @@ public class ScriptHandler {
         }
     }
 
-    public void handleLine(final SinkUser user, final String line, final Plugin plugin) {
-        boolean async = line.contains(" --async");
-        ScriptContext context = getScriptContext(user);
-
-        final ScriptLanguage language = context.getScriptLanguage();
-        final ScriptContext tmpInstance = context;
+    /**
+     * Handle a line of the interactive console. The line is queued after the previous lines of the user
+     * @return the future of the queued line
+     */
+    public Future<?> handleLine(final SinkUser user, final String line, final Plugin plugin) {
+        boolean async = isAsyncExecute(line);
+        final ScriptContext localShellInstance = getScriptContext(user);
 
         Runnable runnable = new Runnable() {
             String nl = Util.getNewLine();
-            String code = null;
-            ScriptContext localShellInstance = tmpInstance;
 
             @SuppressWarnings("ConstantConditions")
             public void run() {
+                // the user quit or the context was abandoned while the line was queued, its context is released
+                if (contextInstances.get(userToKey(user)) != localShellInstance) {
+                    return;
+                }
+
+                // the language is resolved when the line runs, previous lines of the user may have changed it
+                ScriptLanguage language = localShellInstance.getScriptLanguage();
                 try {
                     if(line.toCharArray().length > 0 && line.toCharArray()[0] == '.') {
                         String[] args = line.split(" ");
@@ -148,72 +166,41 @@ public class ScriptHandler {
                     }
 
                     String currentLine = line;
-
-                    //check if code was set before
-                    boolean codeSet = false;
+                    CodeBuffer codeBuffer = localShellInstance.getCodeBuffer();
                     boolean isReplace = false;
 
-                    if (StringUtil.isEmptyOrNull(localShellInstance.getCode())) { // code not set
-                            code = currentLine;
-                            codeSet = true;
-                    } else {
-                        code = localShellInstance.getCode();
-                    }
-
-                    //boolean useNl = !currentLine.startsWith("<");
-                    //if (!useNl) {
-                    //    currentLine = currentLine.replaceFirst("<", "");
-                    //    nl = "";
-                    //}
-
                     // remove last line and add the code after ^
-                    if(line.length() > 0 && line.toCharArray()[0] == '^') {
-                        List<String> lines = new ArrayList<>();
-                        lines.addAll(Arrays.asList(code.split(System.lineSeparator())));
-
-                        // remove last line
-                        if(lines.size() > 0) lines.remove(lines.size()-1);
-
-                        code = "";
-                        for (String s : lines) {
-                            code += s + System.lineSeparator();
-                        }
+                    boolean isImport = false;
+                    if(line.length() > 0 && line.charAt(0) == '^') {
+                        codeBuffer.removeLastLine();
+                        currentLine = line.substring(1);
 
-                        // if there is more than just a "^", add everything after that
-                        if(line.length() > 1) {
-                            code +=  line.replaceFirst("\\Q^\\E", "") + nl;
+                        List<String> pendingStatement = localShellInstance.getPendingStatement();
+                        if(localShellInstance.isIncremental() && !pendingStatement.isEmpty()) {
+                            pendingStatement.remove(pendingStatement.size() - 1);
                         }
 
-                        if(!currentLine.trim().equals("^"))  {
-                            currentLine = currentLine.replaceFirst("\\Q^\\E", "");
-                            isReplace = true;
-                            codeSet = true;
-                        } else {
+                        if(currentLine.trim().isEmpty())  {
                             user.sendMessage(ChatColor.GOLD + "Removed last line");
-                            localShellInstance.setCode(code);
                             return;
                         }
-                    }
-
-                    boolean isImport = false;
-
-                    if (language != null && language.getImportIdentifiers() != null && !codeSet) {
-                        for (String s : (Collection<String>)language.getImportIdentifiers()) {
-                            if (currentLine.startsWith(s)) {
-                                code = currentLine + nl + code + nl;
-                                isImport = true;
-                                break;
-                            }
-                        }
-                    }
 
-                    if (!isImport && !codeSet) {
-                        code = code + nl + currentLine + nl;
+                        codeBuffer.addLine(currentLine);
+                        isReplace = true;
+                    } else if (isImport(language, currentLine)) {
+                        codeBuffer.addImport(currentLine);
+                        isImport = true;
+                    } else {
+                        codeBuffer.addLine(currentLine);
                     }
-                    localShellInstance.setCode(code);
 
                     String prefix = isReplace ? ChatColor.GOLD + "[Replace]" : ChatColor.DARK_GREEN + "[Input]";
                     user.sendMessage(prefix + " " + ChatColor.WHITE + language.formatCode(currentLine));
+
+                    // imports are added in front of every statement
+                    if(localShellInstance.isIncremental() && !isImport) {
+                        handleIncrementalLine(localShellInstance, currentLine);
+                    }
                     //contextInstances.put(ScriptHandler.getInstance().userToKey(user), localShellInstance);
                 } catch (Throwable e) {
                     Util.reportException(user, e);
@@ -221,11 +208,147 @@ public class ScriptHandler {
             }
         };
 
-        if (async) {
-            Bukkit.getScheduler().runTaskAsynchronously(plugin, runnable); // use tasks instead of because bukkit can handle them
-        } else {
-            Bukkit.getScheduler().runTask(plugin, runnable);
+        ScriptWorkerPool workerPool = SinkScripts.getInstance().getWorkerPool();
+        final ScriptLanguage uninitialized = getUninitializedLanguage(user, line);
+        if (uninitialized != null) {
+            // initializing can take seconds, it runs on a worker before the line gets its turn on the main thread
+            if (uninitialized.getState() != ScriptLanguage.State.FAILED) {
+                user.sendMessage(ChatColor.GOLD + "Initializing " + uninitialized.getName() + "...");
+            }
+            workerPool.submit(user, new Runnable() {
+                @Override
+                public void run() {
+                    if (!uninitialized.init()) {
+                        return;
+                    }
+                    // a context whose language failed before didn't get an executor
+                    ScriptContext context = contextInstances.get(userToKey(user));
+                    if (context != null && context.getScriptLanguage() == uninitialized && context.getExecutor() == null) {
+                        context.setScriptLanguage(uninitialized);
+                    }
+                }
+            }, false);
         }
+
+        return workerPool.submit(user, runnable, !async);
+    }
+
+    /**
+     * @return the language the line will use if it isn't ready yet, e.g. the language of .setlanguage
+     */
+    @Nullable
+    private ScriptLanguage getUninitializedLanguage(SinkUser user, String line) {
+        ScriptLanguage language = null;
+        String[] args = line.split(" ");
+        if (args[0].equals(".setlanguage") && args.length > 1) {
+            language = getScriptLanguageByName(args[1]);
+            if (language == null) {
+                language = getScriptLanguageByExtension(args[1]);
+            }
+        } else if (args[0].equals(".execute")) {
+            ScriptCommandBase command = ScriptCommandBase.get("execute");
+            CommandLine cmdLine = command == null ? null : command.parseOptions(Arrays.copyOfRange(args, 1, args.length));
+            if (cmdLine != null && cmdLine.hasOption('f')) {
+                String file = cmdLine.getOptionValue('f').trim();
+                language = getScriptLanguageByExtension(file.substring(file.lastIndexOf('.') + 1));
+            }
+        }
+
+        if (language == null && (args[0].equals(".execute") || !line.startsWith("."))) {
+            ScriptContext context = contextInstances.get(userToKey(user));
+            language = context == null ? null : context.getScriptLanguage();
+        }
+
+        if (language == null || language.getState() == ScriptLanguage.State.READY) {
+            return null;
+        }
+        return language;
+    }
+
+    /**
+     * Lines run on the main thread, except for .execute with --async or --budget. Scripts with a tick budget are started
+     * off the main thread and run in lockstep with it
+     */
+    private boolean isAsyncExecute(String line) {
+        if (!line.startsWith(".execute ")) {
+            return false;
+        }
+
+        ScriptCommandBase command = ScriptCommandBase.get("execute");
+        if (command == null) {
+            return false;
+        }
+        String[] args = line.split(" ");
+        CommandLine cmdLine = command.parseOptions(Arrays.copyOfRange(args, 1, args.length));
+        return cmdLine != null && (cmdLine.hasOption('a') || cmdLine.hasOption('b'));
+    }
+
+    /**
+     * Add a line to the pending statement of a context in incremental mode and evaluate the statement as soon as it
+     * is complete. Only the statement is evaluated, it sees the state left by the previous statements in the executor
+     */
+    private void handleIncrementalLine(ScriptContext context, String line) throws Throwable {
+        ScriptLanguage language = context.getScriptLanguage();
+        List<String> pendingStatement = context.getPendingStatement();
+
+        if (!pendingStatement.isEmpty() && !language.continuesStatement(pendingStatement, line)) {
+            executeStatement(context, takePendingStatement(context));
+        }
+
+        pendingStatement.add(line);
+        if (language.isStatementComplete(pendingStatement)) {
+            executeStatement(context, takePendingStatement(context));
+        }
+    }
+
+    private void executeStatement(ScriptContext context, String statement) throws Throwable {
+        setDefaultVariables(context);
+        sendResult(context, context.getScriptLanguage().run(context, statement, false, false));
+    }
+
+    /**
+     * Remove the pending statement of a context in incremental mode
+     * @return the pending statement with the imports of the context in front of it, its declaration is rewritten with
+     *         {@link ScriptLanguage#toPersistentDeclaration(String)}
+     */
+    public String takePendingStatement(ScriptContext context) {
+        String nl = Util.getNewLine();
+        StringBuilder statement = new StringBuilder(context.getCodeBuffer().getImportCode());
+        boolean first = true;
+        for (String line : context.getPendingStatement()) {
+            if (first) {
+                // declarations of the statement itself have to outlive it, declarations in its blocks don't
+                line = context.getScriptLanguage().toPersistentDeclaration(line);
+                first = false;
+            }
+            statement.append(line).append(nl);
+        }
+        context.getPendingStatement().clear();
+        return statement.toString();
+    }
+
+    /**
+     * Show the result of an execution to the user of the context
+     */
+    public void sendResult(ScriptContext context, Object result) {
+        if(result instanceof Object[]) {
+            result = Arrays.asList((Object[]) result);
+        }
+
+        context.getUser().sendMessage(ChatColor.DARK_BLUE + "" + ChatColor.BOLD + "Return Output: " + ChatColor.RESET + "" + ChatColor.BLUE + context.getScriptLanguage().formatCode(String.valueOf(result)));
+    }
+
+    private boolean isImport(ScriptLanguage language, String line) {
+        Collection<String> importIdentifiers = language.getImportIdentifiers();
+        if (importIdentifiers == null) {
+            return false;
+        }
+        for (String s : importIdentifiers) {
+            if (line.startsWith(s)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public void setDefaultVariables(ScriptContext context) {
@@ -253,16 +376,20 @@ public class ScriptHandler {
         }
     }
 
-    public HashMap<String, ScriptContext> getScriptContexts() {
+    public ConcurrentMap<String, ScriptContext> getScriptContexts() {
         return contextInstances;
     }
 
     public ScriptContext getScriptContext(SinkUser user) {
-        ScriptContext context = contextInstances.get(userToKey(user));
+        String key = userToKey(user);
+        ScriptContext context = contextInstances.get(key);
         if(context == null) {
-            SinkScripts.getInstance().getLogger().log(Level.INFO, "Initializing ShellInstance for " + user.getName());
-            context = new ScriptContext(user, null, SinkScripts.getInstance());
-            contextInstances.put(userToKey(user), context);
+            ScriptContext newContext = new ScriptContext(user, null, SinkScripts.getInstance());
+            context = contextInstances.putIfAbsent(key, newContext);
+            if (context == null) {
+                SinkScripts.getInstance().getLogger().log(Level.INFO, "Initializing ShellInstance for " + user.getName());
+                context = newContext;
+            }
         }
         return context;
     }
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * Resource usage of script executions, per user and language
+ */
+public class ScriptStatistics {
+
+    public static final String UNKNOWN_USER = "<unknown>";
+
+    private static ScriptStatistics instance;
+
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public static synchronized ScriptStatistics getInstance() {
+        if (instance == null) {
+            instance = new ScriptStatistics();
+        }
+        return instance;
+    }
+
+    /**
+     * Record a finished execution. Must be called from the thread which ran the execution
+     * @param execution the execution
+     * @param result the result of the execution
+     * @param failed true if the execution threw an exception
+     */
+    public void record(ScriptExecution execution, @Nullable Object result, boolean failed) {
+        long wallNanos = System.nanoTime() - execution.getStartNanos();
+
+        long cpuNanos = -1;
+        long cpuTime = getCurrentThreadCpuTime();
+        if (cpuTime >= 0 && execution.getStartCpuNanos() >= 0) {
+            cpuNanos = cpuTime - execution.getStartCpuNanos();
+        }
+
+        long allocatedBytes = -1;
+        long allocated = getCurrentThreadAllocatedBytes();
+        if (allocated >= 0 && execution.getStartAllocatedBytes() >= 0) {
+            allocatedBytes = allocated - execution.getStartAllocatedBytes();
+        }
+
+        String user = execution.getUser() == null ? UNKNOWN_USER : ScriptHandler.getInstance().userToKey(execution.getUser());
+        getEntry(user, execution.getLanguage().getName()).add(wallNanos, cpuNanos, allocatedBytes, getResultSize(result), failed);
+    }
+
+    /**
+     * @return the statistics of all users and languages
+     */
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    /**
+     * @param user key of the user (see {@link ScriptHandler#userToKey}) or null for all users
+     * @param language name of the language or null for all languages
+     * @return the matching statistics
+     */
+    public List<Entry> getEntries(@Nullable String user, @Nullable String language) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (user != null && !entry.getUser().equalsIgnoreCase(user)) {
+                continue;
+            }
+            if (language != null && !entry.getLanguage().equalsIgnoreCase(language)) {
+                continue;
+            }
+            result.add(entry);
+        }
+        return result;
+    }
+
+    public void reset() {
+        entries.clear();
+    }
+
+    /**
+     * @return the CPU time of the current thread in nanoseconds or -1 if it isn't available
+     */
+    public long getCurrentThreadCpuTime() {
+        if (!threadBean.isCurrentThreadCpuTimeSupported() || !threadBean.isThreadCpuTimeEnabled()) {
+            return -1;
+        }
+        return threadBean.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * @return the bytes allocated by the current thread or -1 if the JVM doesn't count them
+     */
+    public long getCurrentThreadAllocatedBytes() {
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+        if (!bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * The size of a result is the length of strings and arrays, the element count of collections and maps and 1 for
+     * any other object
+     */
+    private long getResultSize(@Nullable Object result) {
+        if (result == null) {
+            return 0;
+        }
+        if (result instanceof CharSequence) {
+            return ((CharSequence) result).length();
+        }
+        if (result instanceof Collection) {
+            return ((Collection) result).size();
+        }
+        if (result instanceof Map) {
+            return ((Map) result).size();
+        }
+        if (result.getClass().isArray()) {
+            return Array.getLength(result);
+        }
+        return 1;
+    }
+
+    private Entry getEntry(String user, String language) {
+        String key = user + "/" + language;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            Entry newEntry = new Entry(user, language);
+            entry = entries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Statistics of one user in one language. Unavailable CPU time and allocation counters are not added
+     */
+    public static class Entry {
+        private final String user;
+        private final String language;
+        private final AtomicLong executions = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong wallNanos = new AtomicLong();
+        private final AtomicLong maxWallNanos = new AtomicLong();
+        private final AtomicLong cpuNanos = new AtomicLong();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        private final AtomicLong resultSize = new AtomicLong();
+
+        Entry(String user, String language) {
+            this.user = user;
+            this.language = language;
+        }
+
+        void add(long wall, long cpu, long allocated, long size, boolean failed) {
+            executions.incrementAndGet();
+            if (failed) {
+                failures.incrementAndGet();
+            }
+            wallNanos.addAndGet(wall);
+            long max = maxWallNanos.get();
+            while (wall > max && !maxWallNanos.compareAndSet(max, wall)) {
+                max = maxWallNanos.get();
+            }
+            if (cpu > 0) {
+                cpuNanos.addAndGet(cpu);
+            }
+            if (allocated > 0) {
+                allocatedBytes.addAndGet(allocated);
+            }
+            resultSize.addAndGet(size);
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public String getLanguage() {
+            return language;
+        }
+
+        public long getExecutions() {
+            return executions.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getWallNanos() {
+            return wallNanos.get();
+        }
+
+        public long getMaxWallNanos() {
+            return maxWallNanos.get();
+        }
+
+        public long getCpuNanos() {
+            return cpuNanos.get();
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes.get();
+        }
+
+        public long getResultSize() {
+            return resultSize.get();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine;
+
+import de.static_interface.sinklibrary.api.user.SinkUser;
+import de.static_interface.sinkscripts.SinkScripts;
+import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
+import de.static_interface.sinkscripts.util.Util;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Stops script executions which run for too long.
+ * <p>
+ * Every execution is checked against the limits of its language: the CPU time it used, the time it has been running
+ * and the time it has been blocking the main thread. An execution which exceeds a limit gets stopped at its next safe
+ * point (see {@link ScriptExecution#checkpoint()}), interrupted and reported. If it is still running after
+ * {@code watchdog.force-stop-after-ms} it is abandoned: it isn't watched anymore, the context of its user is dropped
+ * and the worker lane of the user is poisoned, so the next lines of the user don't wait behind it. Threads are never
+ * stopped forcefully and the main thread is never interrupted, executions blocking it can only be stopped by their
+ * safe points.
+ * <p>
+ * Executions are only tracked, but never checked, while the watchdog isn't started.
+ */
+public class ScriptWatchdog {
+
+    private static ScriptWatchdog instance;
+
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final Set<ScriptExecution> executions = Collections.newSetFromMap(new ConcurrentHashMap<ScriptExecution, Boolean>());
+    private ScheduledExecutorService monitor;
+    private volatile Thread mainThread;
+
+    public static synchronized ScriptWatchdog getInstance() {
+        if (instance == null) {
+            instance = new ScriptWatchdog();
+        }
+        return instance;
+    }
+
+    /**
+     * Start checking the executions. Must be called from the main thread
+     * @param plugin the plugin which owns the watchdog
+     */
+    public synchronized void start(Plugin plugin) {
+        if (monitor != null) {
+            return;
+        }
+
+        mainThread = Thread.currentThread();
+        if (threadBean.isThreadCpuTimeSupported() && !threadBean.isThreadCpuTimeEnabled()) {
+            threadBean.setThreadCpuTimeEnabled(true);
+        }
+
+        long interval = Math.max(10, plugin.getConfig().getInt("watchdog.check-interval-ms", 250));
+        monitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SinkScripts Watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        monitor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (ScriptExecution execution : executions) {
+                    try {
+                        check(execution);
+                    } catch (Throwable thr) {
+                        thr.printStackTrace();
+                    }
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (monitor == null) {
+            return;
+        }
+        monitor.shutdownNow();
+        monitor = null;
+        mainThread = null;
+    }
+
+    /**
+     * Track an execution on the current thread. The returned execution must be finished by the caller, e.g.
+     * <pre>
+     * ScriptExecution execution = ScriptWatchdog.getInstance().watch(context, language, code);
+     * try {
+     *     ...
+     * } finally {
+     *     execution.finish();
+     * }
+     * </pre>
+     * @param context the context of the execution
+     * @param language the language of the code
+     * @param code the code which gets executed
+     * @return the tracked execution
+     */
+    public ScriptExecution watch(@Nullable ScriptContext context, ScriptLanguage language, String code) {
+        SinkUser user = context == null ? null : context.getUser();
+        ScriptExecution execution = new ScriptExecution(this, user, language, code, Thread.currentThread() == mainThread,
+                                                        getCpuTime(Thread.currentThread()),
+                                                        ScriptStatistics.getInstance().getCurrentThreadAllocatedBytes());
+        executions.add(execution);
+        return execution;
+    }
+
+    void remove(ScriptExecution execution) {
+        executions.remove(execution);
+    }
+
+    /**
+     * @return the currently running executions
+     */
+    public Set<ScriptExecution> getExecutions() {
+        return Collections.unmodifiableSet(executions);
+    }
+
+    private void check(ScriptExecution execution) {
+        ScriptLanguage language = execution.getLanguage();
+        long now = System.nanoTime();
+
+        long interruptedAt = execution.getInterruptedAt();
+        if (interruptedAt != 0) {
+            if (execution.isMainThread()) {
+                // stopped at the next safe point, languages without safe points can't be stopped without harming
+                // the server
+                return;
+            }
+
+            long forceStopAfter = language.getSetting("watchdog.force-stop-after-ms", 2000);
+            if (forceStopAfter > 0 && now - interruptedAt > TimeUnit.MILLISECONDS.toNanos(forceStopAfter)
+                && execution.abandon()) {
+                abandon(execution);
+                report(execution, createException(execution, "didn't stop within " + forceStopAfter
+                                                              + " ms after being interrupted and was abandoned"));
+            }
+            return;
+        }
+
+        String violation = null;
+
+        long maxCpuTime = language.getSetting("watchdog.max-cpu-time-ms", 30000);
+        long cpuTime = getCpuTime(execution.getThread());
+        if (maxCpuTime > 0 && cpuTime >= 0 && execution.getStartCpuNanos() >= 0
+            && cpuTime - execution.getStartCpuNanos() > TimeUnit.MILLISECONDS.toNanos(maxCpuTime)) {
+            violation = "exceeded its CPU time limit of " + maxCpuTime + " ms";
+        }
+
+        long wallTime = now - execution.getStartNanos();
+        long maxWallTime = language.getSetting("watchdog.max-wall-time-ms", 0);
+        if (violation == null && maxWallTime > 0 && wallTime > TimeUnit.MILLISECONDS.toNanos(maxWallTime)) {
+            violation = "exceeded its time limit of " + maxWallTime + " ms";
+        }
+
+        long maxMainThreadTime = language.getSetting("watchdog.max-main-thread-time-ms", 10000);
+        if (violation == null && execution.isMainThread() && maxMainThreadTime > 0
+            && wallTime > TimeUnit.MILLISECONDS.toNanos(maxMainThreadTime)) {
+            violation = "blocked the main thread for more than " + maxMainThreadTime + " ms";
+        }
+
+        if (violation == null) {
+            return;
+        }
+
+        ScriptLimitExceededException reason = createException(execution, violation);
+        if (execution.interrupt()) {
+            report(execution, reason);
+        }
+    }
+
+    private void abandon(ScriptExecution execution) {
+        executions.remove(execution);
+
+        SinkUser user = execution.getUser();
+        if (user == null) {
+            return;
+        }
+
+        // the executor of the context is still used by the abandoned thread, so the context is dropped without
+        // releasing it
+        ScriptHandler.getInstance().getScriptContexts().remove(ScriptHandler.getInstance().userToKey(user));
+        SinkScripts plugin = SinkScripts.getInstance();
+        if (plugin != null && plugin.getWorkerPool() != null) {
+            plugin.getWorkerPool().abandon(user);
+        }
+    }
+
+    private long getCpuTime(Thread thread) {
+        if (!threadBean.isThreadCpuTimeSupported() || !threadBean.isThreadCpuTimeEnabled()) {
+            return -1;
+        }
+        return threadBean.getThreadCpuTime(thread.getId());
+    }
+
+    private ScriptLimitExceededException createException(ScriptExecution execution, String violation) {
+        StackTraceElement[] stackTrace = execution.getThread().getStackTrace();
+        String message = execution.getLanguage().getName() + " script " + violation;
+
+        StackTraceElement scriptFrame = findScriptFrame(execution.getLanguage(), stackTrace);
+        if (scriptFrame != null) {
+            message += ", it was running at line " + scriptFrame.getLineNumber();
+            String[] lines = execution.getCode().split("\\r?\\n");
+            int line = scriptFrame.getLineNumber() - 1;
+            if (line < lines.length) {
+                message += ": " + lines[line].trim();
+            }
+        }
+
+        ScriptLimitExceededException exception = new ScriptLimitExceededException(message);
+        exception.setStackTrace(stackTrace);
+        return exception;
+    }
+
+    /**
+     * Find the frame of the script code in the stack of the executing thread. Only works for languages which compile
+     * the code to classes which keep the line numbers
+     */
+    @Nullable
+    private StackTraceElement findScriptFrame(ScriptLanguage language, StackTraceElement[] stackTrace) {
+        for (StackTraceElement element : stackTrace) {
+            String file = element.getFileName();
+            if (file == null || element.getLineNumber() <= 0) {
+                continue;
+            }
+
+            if (file.endsWith("." + language.getFileExtension()) || file.startsWith("<")) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private void report(ScriptExecution execution, ScriptLimitExceededException reason) {
+        if (execution.getUser() == null) {
+            reason.printStackTrace();
+            return;
+        }
+        Util.reportException(execution.getUser(), reason);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine;
+
+import de.static_interface.sinklibrary.api.user.SinkUser;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs script jobs on threads owned by SinkScripts.
+ * <p>
+ * Jobs of the same user are executed one after another in the order they were submitted, jobs of different users
+ * run in parallel. Jobs which need the main thread are handed over to it by the worker, so they keep their place in
+ * the queue of their user. Never wait for such a job on the main thread, it would never finish.
+ */
+public class ScriptWorkerPool {
+
+    private final Plugin plugin;
+    private final ThreadPoolExecutor workers;
+    private final ConcurrentMap<String, UserQueue> userQueues = new ConcurrentHashMap<>();
+
+    public ScriptWorkerPool(Plugin plugin, int threads) {
+        this.plugin = plugin;
+        threads = Math.max(1, threads);
+        workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = defaultFactory.newThread(r);
+                thread.setName("SinkScripts Worker #" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue a job for the given user
+     * @param user the user which runs the job
+     * @param task the job
+     * @param mainThread true if the job has to run on the main thread
+     * @return the future of the job, it can be used to wait for or to cancel the job
+     */
+    public <T> Future<T> submit(SinkUser user, final Callable<T> task, boolean mainThread) {
+        Callable<T> callable = task;
+        if (mainThread) {
+            callable = new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return callSync(task);
+                }
+            };
+        }
+
+        FutureTask<T> future = new FutureTask<>(callable);
+        String key = ScriptHandler.getInstance().userToKey(user);
+        while (!getQueue(key).add(future)) {
+            // the queue was abandoned or removed while idle, the next call creates a new one
+        }
+        return future;
+    }
+
+    public Future<?> submit(SinkUser user, Runnable task, boolean mainThread) {
+        return submit(user, Executors.callable(task), mainThread);
+    }
+
+    /**
+     * Give up on the queue of a user whose current job doesn't stop. The current job is cancelled and the queued jobs
+     * are dropped. Later jobs of the user get a new queue, so they don't wait behind the stuck job. The stuck job keeps
+     * its worker, so the pool gets an additional worker until the job returns
+     * @param user the user whose queue is poisoned
+     */
+    public void abandon(SinkUser user) {
+        UserQueue queue = userQueues.remove(ScriptHandler.getInstance().userToKey(user));
+        if (queue != null) {
+            queue.poison();
+        }
+    }
+
+    public void shutdown() {
+        workers.shutdownNow();
+        userQueues.clear();
+    }
+
+    public int getActiveCount() {
+        return workers.getActiveCount();
+    }
+
+    public int getPoolSize() {
+        return workers.getMaximumPoolSize();
+    }
+
+    private synchronized void resize(int delta) {
+        int size = workers.getCorePoolSize() + delta;
+        // the core size must never exceed the maximum size
+        if (delta > 0) {
+            workers.setMaximumPoolSize(size);
+            workers.setCorePoolSize(size);
+        } else {
+            workers.setCorePoolSize(size);
+            workers.setMaximumPoolSize(size);
+        }
+    }
+
+    private <T> T callSync(Callable<T> task) throws Exception {
+        Future<T> future = Bukkit.getScheduler().callSyncMethod(plugin, task);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private UserQueue getQueue(String key) {
+        UserQueue queue = userQueues.get(key);
+        if (queue == null) {
+            UserQueue newQueue = new UserQueue(key);
+            queue = userQueues.putIfAbsent(key, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Runs the jobs of one user in order. Only one job per run is executed, so users can't starve each other.
+     * The queue removes itself once it ran out of jobs, so users who left don't keep their queue
+     */
+    private class UserQueue implements Runnable {
+        private final String key;
+        private final Queue<FutureTask<?>> tasks = new ArrayDeque<>();
+        private FutureTask<?> current;
+        private boolean scheduled;
+        private boolean closed;
+        private boolean currentAbandoned;
+
+        public UserQueue(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return false if the queue was poisoned or removed and doesn't take jobs anymore
+         */
+        public synchronized boolean add(FutureTask<?> task) {
+            if (closed) {
+                return false;
+            }
+            tasks.add(task);
+            if (!scheduled) {
+                scheduled = true;
+                workers.execute(this);
+            }
+            return true;
+        }
+
+        public synchronized void poison() {
+            closed = true;
+            for (FutureTask<?> task : tasks) {
+                task.cancel(false);
+            }
+            tasks.clear();
+            if (current != null && !currentAbandoned) {
+                current.cancel(true);
+                // the job keeps its worker until it returns, another one takes its place
+                currentAbandoned = true;
+                resize(1);
+            }
+        }
+
+        @Override
+        public void run() {
+            FutureTask<?> task;
+            synchronized (this) {
+                task = tasks.poll();
+                current = task;
+            }
+
+            try {
+                if (task != null) {
+                    task.run();
+                }
+            } finally {
+                boolean returnWorker;
+                synchronized (this) {
+                    current = null;
+                    returnWorker = currentAbandoned;
+                    currentAbandoned = false;
+                    if (tasks.isEmpty()) {
+                        scheduled = false;
+                        closed = true;
+                        userQueues.remove(key, this);
+                    } else {
+                        workers.execute(this);
+                    }
+                }
+                if (returnWorker) {
+                    // the abandoned job returned after all, remove the worker which replaced it
+                    resize(-1);
+                }
+            }
+        }
+    }
+}
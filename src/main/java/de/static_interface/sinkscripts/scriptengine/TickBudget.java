@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine;
+
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Runs a script in lockstep with the main thread, so it can use the Bukkit API without stalling a whole tick.
+ * <p>
+ * The script runs on its own thread, but only while the main thread waits for it: every tick the main thread hands
+ * over control and waits until the script returns it. The script returns control at the next safe point
+ * (see {@link #checkpoint()}) after its budget for the current tick has been used up and continues in the next tick.
+ * <p>
+ * Scripts must not wait for the main thread themselves (e.g. with callSyncMethod), the main thread is blocked while
+ * they run.
+ * <p>
+ * A cancelled script (e.g. interrupted by the {@link ScriptWatchdog}) still only runs while the main thread waits for
+ * it: the main thread is blocked until the script has left. A script which doesn't give the tick back within
+ * {@code watchdog.max-main-thread-time-ms} is cancelled, the main thread keeps waiting until it stops at its next
+ * safe point, so it never runs concurrently with the main thread.
+ */
+public class TickBudget {
+
+    private static final ThreadLocal<TickBudget> current = new ThreadLocal<>();
+
+    private final Plugin plugin;
+    private final long budgetNanos;
+    private final long maxWaitMillis;
+    private final Semaphore scriptTurn = new Semaphore(0);
+    private final Semaphore mainTurn = new Semaphore(0);
+    private volatile boolean finished;
+    private volatile boolean cancelled;
+    private long sliceStart;
+    private volatile int ticks;
+
+    /**
+     * @param plugin the plugin which schedules the ticks
+     * @param language the language of the script, its watchdog settings apply
+     * @param budgetNanos the time the script may run per tick
+     */
+    public TickBudget(Plugin plugin, ScriptLanguage language, long budgetNanos) {
+        this.plugin = plugin;
+        this.budgetNanos = budgetNanos;
+        this.maxWaitMillis = language.getSetting("watchdog.max-main-thread-time-ms", 10000);
+    }
+
+    /**
+     * @return the budget of the script running on the current thread
+     */
+    @Nullable
+    public static TickBudget getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * Safe point for scripts running on the current thread. Suspends the script until the next tick if its budget was
+     * used up
+     * @return true if the script has been cancelled and should stop
+     */
+    public static boolean checkpoint() {
+        TickBudget budget = current.get();
+        return budget != null && budget.check();
+    }
+
+    /**
+     * Run the task in lockstep with the main thread. Must not be called from the main thread
+     * @param task the task, usually the script execution
+     * @return the result of the task
+     */
+    public <T> T run(Callable<T> task) throws Exception {
+        if (Bukkit.isPrimaryThread()) {
+            throw new IllegalStateException("Scripts with a tick budget can't be started from the main thread");
+        }
+
+        BukkitTask tickTask = Bukkit.getScheduler().runTaskTimer(plugin, new Runnable() {
+            @Override
+            public void run() {
+                if (finished) {
+                    return;
+                }
+                ticks++;
+                scriptTurn.release();
+                waitForScript();
+            }
+        }, 0, 1);
+
+        current.set(this);
+        try {
+            scriptTurn.acquire();
+            sliceStart = System.nanoTime();
+            return task.call();
+        } finally {
+            current.remove();
+            finished = true;
+            mainTurn.release();
+            tickTask.cancel();
+        }
+    }
+
+    /**
+     * Instance version of {@link #checkpoint()}, for languages which can't call static methods of plugin classes
+     * @return true if the script has been cancelled and should stop
+     */
+    public boolean check() {
+        if (finished || current.get() != this) {
+            return false;
+        }
+
+        if (cancelled || Thread.currentThread().isInterrupted()) {
+            cancelled = true;
+            return true;
+        }
+
+        if (System.nanoTime() - sliceStart < budgetNanos) {
+            return false;
+        }
+
+        // budget used up, give the tick back and wait for the next one
+        mainTurn.release();
+        try {
+            scriptTurn.acquire();
+        } catch (InterruptedException e) {
+            // the script stops now, but it has to wait for its turn, it must not run concurrently with the main thread
+            scriptTurn.acquireUninterruptibly();
+            cancelled = true;
+            return true;
+        }
+        sliceStart = System.nanoTime();
+        return false;
+    }
+
+    /**
+     * Block the main thread until the script gives the tick back or has left
+     */
+    private void waitForScript() {
+        boolean interrupted = false;
+        try {
+            if (maxWaitMillis <= 0) {
+                mainTurn.acquire();
+                return;
+            }
+            if (mainTurn.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+            plugin.getLogger().warning("A script with a tick budget didn't give the main thread back within " + maxWaitMillis
+                                       + " ms, it gets cancelled");
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+
+        // the script stops at its next safe point, it must not run concurrently with the main thread until then
+        cancelled = true;
+        mainTurn.acquireUninterruptibly();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    /**
+     * @return the amount of ticks the script has been running in
+     */
+    public int getTicks() {
+        return ticks;
+    }
+}
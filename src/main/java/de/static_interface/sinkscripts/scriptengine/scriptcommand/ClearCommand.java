@@ -33,7 +33,7 @@ public class ClearCommand extends ScriptCommandBase {
     protected boolean onExecute(ScriptContext context, String[] args, String label, String nl)
             throws Exception {
 
-        context.setCode("");
+        context.getCodeBuffer().clear();
         context.getUser().sendMessage(ChatColor.DARK_RED + "History cleared");
 
         return true;
@@ -19,6 +19,7 @@ package de.static_interface.sinkscripts.scriptengine.scriptcommand;
 
 import de.static_interface.sinklibrary.util.StringUtil;
 import de.static_interface.sinkscripts.scriptengine.ScriptHandler;
+import de.static_interface.sinkscripts.scriptengine.TickBudget;
 import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
 import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
 import de.static_interface.sinkscripts.util.Util;
@@ -26,7 +27,8 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.bukkit.ChatColor;
 
-import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import javax.annotation.Nonnull;
 
@@ -67,7 +69,16 @@ public class ExecuteCommand extends ScriptCommandBase {
                 .desc("No default imports")
                 .build();
 
+        Option budget = Option.builder("b")
+                .hasArg()
+                .longOpt("budget")
+                .desc("Run on the main thread, but suspend the script each tick after the given time, e.g. 5ms (groovy and lua only)")
+                .type(String.class)
+                .argName("time")
+                .build();
+
         parentOptions.addOption(async);
+        parentOptions.addOption(budget);
         parentOptions.addOption(file);
         parentOptions.addOption(skipoutput);
         parentOptions.addOption(clear);
@@ -88,6 +99,7 @@ public class ExecuteCommand extends ScriptCommandBase {
         }
 
         Object result;
+        boolean temporaryContext = false;
 
         if(scriptName != null) {
             String tmp[] = scriptName.split("\\Q.\\E");
@@ -111,6 +123,7 @@ public class ExecuteCommand extends ScriptCommandBase {
 
                 // Use a new context when -f is defined
                 context = new ScriptContext(context.getUser(), extensionLanguage, context.getPlugin());
+                temporaryContext = true;
             }
         }
 
@@ -121,31 +134,81 @@ public class ExecuteCommand extends ScriptCommandBase {
 
         ScriptHandler.getInstance().setDefaultVariables(context);
 
-        String code = context.getCode();
+        String code;
         if(scriptName != null) {
             code = Util.loadFile(scriptName, context.getScriptLanguage());
+        } else if(context.isIncremental()) {
+            // complete statements have been evaluated already, only the pending one is left
+            if(context.getPendingStatement().isEmpty()) {
+                context.getUser().sendMessage(ChatColor.GOLD + "Nothing to execute, statements are executed as soon as they are complete");
+                return true;
+            }
+            code = ScriptHandler.getInstance().takePendingStatement(context);
+        } else {
+            code = context.getCode();
         }
 
         try {
-            result =
-                    context.getScriptLanguage().run(context, code, noImports,
-                                 clear);
+            if(cmdLine.hasOption('b')) {
+                result = runWithBudget(context, code, noImports, clear, parseBudget(cmdLine.getOptionValue('b')));
+            } else {
+                result =
+                        context.getScriptLanguage().run(context, code, noImports,
+                                     clear);
+            }
         } catch (Throwable throwable) {
             Util.reportException(context.getUser(), throwable);
             return true;
-        }
-
-        if(result instanceof Object[]) {
-            result = Arrays.asList((Object[])result);
+        } finally {
+            if(temporaryContext) {
+                context.releaseExecutor();
+            }
         }
 
         if (!skipOutput) {
-            context.getUser().sendMessage(ChatColor.DARK_BLUE + "" + ChatColor.BOLD + "Return Output: " + ChatColor.RESET + "" + ChatColor.BLUE + context.getScriptLanguage().formatCode(String.valueOf(result)));
+            ScriptHandler.getInstance().sendResult(context, result);
         }
 
         return true;
     }
 
+    private Object runWithBudget(final ScriptContext context, final String code, final boolean noImports, final boolean clear, long budgetNanos)
+            throws Exception {
+        if(!context.getScriptLanguage().supportsSafePoints()) {
+            throw new UnsupportedOperationException(context.getScriptLanguage().getName() + " doesn't support tick budgets");
+        }
+
+        return new TickBudget(context.getPlugin(), context.getScriptLanguage(), budgetNanos).run(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                try {
+                    return context.getScriptLanguage().run(context, code, noImports, clear);
+                } catch (Exception e) {
+                    throw e;
+                } catch (Throwable throwable) {
+                    throw new ExecutionException(throwable);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param value budget like "5ms" or "5"
+     * @return the budget in nanoseconds
+     */
+    private long parseBudget(String value) {
+        value = value.trim().toLowerCase();
+        if(value.endsWith("ms")) {
+            value = value.substring(0, value.length() - 2).trim();
+        }
+
+        double millis = Double.parseDouble(value);
+        if(millis <= 0) {
+            throw new IllegalArgumentException("Budget must be greater than 0: " + value);
+        }
+        return (long) (millis * 1000000);
+    }
+
     @Override
     public boolean languageRequired() {
         return false;
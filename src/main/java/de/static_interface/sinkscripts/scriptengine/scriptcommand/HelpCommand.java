@@ -34,7 +34,9 @@ public class HelpCommand extends ScriptCommandBase {
             throws Exception {
 
         context.getUser().sendMessage(ChatColor.GREEN + "[Help] " + ChatColor.GRAY + "Available Commands: .autostart [-f <language>], .help, .load <file>, " +
-                                       ".save <file>, .execute [-f <file>], .setvariable <name> <value>, .history, .clear, .setlanguage <language>");
+                                       ".save <file>, .execute [-f <file>] [--async] [--budget <time>], .setvariable <name> <value>, .history, .clear, .setlanguage <language>, .incremental [on|off], " +
+                                       ".stats [-u <user>] [-l <language>] [-g <user|language>] [--caches] [--reset], " +
+                                       ".probe <class> <method> [argument classes...], .probe report|reset|clear");
         return true;
     }
 
@@ -35,11 +35,9 @@ public class HistoryCommand extends ScriptCommandBase {
             throws Exception {
 
         context.getUser().sendMessage(ChatColor.GOLD + "-------|History|-------");
-        if (context.getCode() != null) {
-            for (String s : context.getCode().split(nl)) {
-                if(StringUtil.isEmptyOrNull(s)) continue;
-                context.getUser().sendMessage(ChatColor.WHITE + context.getScriptLanguage().formatCode(s));
-            }
+        for (String s : context.getCodeBuffer().getLines()) {
+            if(StringUtil.isEmptyOrNull(s)) continue;
+            context.getUser().sendMessage(ChatColor.WHITE + context.getScriptLanguage().formatCode(s));
         }
         context.getUser().sendMessage(ChatColor.GOLD + "-----------------------");
 
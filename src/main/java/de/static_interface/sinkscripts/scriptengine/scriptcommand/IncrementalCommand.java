@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine.scriptcommand;
+
+import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import org.apache.commons.cli.Options;
+import org.bukkit.ChatColor;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Toggles the incremental mode of a context. Every complete statement is evaluated as a script of its own, state is
+ * kept by the executor between them. Variables local to a script would be lost, so {@code def x = ...} (groovy) and
+ * {@code local x = ...} (lua) at the start of a statement are turned into variables of the executor. Typed groovy
+ * declarations (e.g. {@code int x = 1}), methods and classes of groovy are still local to their statement.
+ */
+public class IncrementalCommand extends ScriptCommandBase {
+
+    public IncrementalCommand() {
+        super("incremental");
+    }
+
+    @Override
+    protected boolean onExecute(ScriptContext context, String[] args, String label, String nl) throws Exception {
+        boolean incremental;
+        if (args.length < 1) {
+            incremental = !context.isIncremental();
+        } else if (args[0].equalsIgnoreCase("on")) {
+            incremental = true;
+        } else if (args[0].equalsIgnoreCase("off")) {
+            incremental = false;
+        } else {
+            return false;
+        }
+
+        context.setIncremental(incremental);
+        if (incremental) {
+            context.getUser().sendMessage(ChatColor.GOLD + "Incremental mode enabled: " + ChatColor.RESET
+                                          + "statements are executed as soon as they are complete, .execute runs an incomplete statement. "
+                                          + "Use untyped variables (def in groovy), typed ones and methods don't survive their statement");
+        } else {
+            context.getUser().sendMessage(ChatColor.GOLD + "Incremental mode disabled: " + ChatColor.RESET
+                                          + ".execute runs the whole code again");
+        }
+        return true;
+    }
+
+    @Override
+    public boolean languageRequired() {
+        return false;
+    }
+
+    @Nonnull
+    @Override
+    public Options buildOptions(Options parentOptions) {
+        return parentOptions;
+    }
+
+    @Override
+    @Nonnull
+    public String getSyntax() {
+        return "{COMMAND} [on|off]";
+    }
+}
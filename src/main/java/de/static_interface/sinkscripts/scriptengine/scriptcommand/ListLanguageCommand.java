@@ -37,12 +37,13 @@ public class ListLanguageCommand extends ScriptCommandBase {
         String languages = "";
 
         for (ScriptLanguage lang : ScriptHandler.getInstance().getScriptLanguages()) {
+            String language = lang.getName() + " " + getStatus(lang) + ChatColor.RESET;
             if (languages.equals("")) {
-                languages = lang.getName();
+                languages = language;
                 continue;
             }
 
-            languages += ", " + lang.getName();
+            languages += ", " + language;
         }
 
         context.getUser().sendMessage(ChatColor.GOLD + "Available script languages: " + ChatColor.RESET + languages);
@@ -50,6 +51,19 @@ public class ListLanguageCommand extends ScriptCommandBase {
         return true;
     }
 
+    private static String getStatus(ScriptLanguage language) {
+        switch (language.getState()) {
+            case READY:
+                return ChatColor.GREEN + "(ready, initialized in " + language.getInitNanos() / 1000000 + " ms)";
+            case INITIALIZING:
+                return ChatColor.YELLOW + "(initializing)";
+            case FAILED:
+                return ChatColor.RED + "(failed)";
+            default:
+                return ChatColor.GRAY + "(not loaded yet)";
+        }
+    }
+
     @Override
     public boolean languageRequired() {
         return false;
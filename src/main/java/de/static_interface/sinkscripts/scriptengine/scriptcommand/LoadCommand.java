@@ -43,7 +43,7 @@ public class LoadCommand extends ScriptCommandBase {
         String scriptName = args[0];
 
         try {
-            context.setCode(Util.loadFile(scriptName, context.getScriptLanguage()) + context.getCode());
+            context.getCodeBuffer().prependLines(Util.loadFile(scriptName, context.getScriptLanguage()));
         } catch (FileNotFoundException ignored) {
             context.getUser().sendMessage(ChatColor.DARK_RED + "File doesn't exists!");
             return true;
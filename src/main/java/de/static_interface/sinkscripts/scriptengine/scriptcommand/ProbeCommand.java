@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine.scriptcommand;
+
+import de.static_interface.sinklibrary.SinkLibrary;
+import de.static_interface.sinkscripts.injection.ProbeRegistry;
+import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import org.apache.commons.cli.Options;
+import org.bukkit.ChatColor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+public class ProbeCommand extends ScriptCommandBase {
+
+    private static final String OVERHEAD_NOTE = "Probed calls look up their probe in the system properties when they start "
+                                                + "and end. The lookup locks the properties, which are shared by the whole "
+                                                + "server, so probes slow down hot methods and measure the lock wait too";
+
+    public ProbeCommand() {
+        super("probe");
+    }
+
+    @Override
+    protected boolean onExecute(ScriptContext context, String[] args, String label, String nl) throws Exception {
+        if (args.length < 1) {
+            return false;
+        }
+
+        ProbeRegistry registry = ProbeRegistry.getInstance();
+        if (args.length == 1) {
+            switch (args[0].toLowerCase()) {
+                case "report":
+                    sendReport(context, registry);
+                    return true;
+                case "reset":
+                    registry.reset();
+                    context.getUser().sendMessage(ChatColor.GOLD + "Probes have been reset");
+                    return true;
+                case "clear":
+                    registry.clear();
+                    context.getUser().sendMessage(ChatColor.GOLD + "Probes have been disabled");
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        if (!SinkLibrary.getInstance().isInjectorAvailable()) {
+            context.getUser().sendMessage(ChatColor.RED + "Injections are not available");
+            return true;
+        }
+
+        List<String> methodArgs = Arrays.asList(args).subList(2, args.length);
+        ProbeRegistry.Probe probe = registry.add(args[0], args[1], methodArgs);
+        context.getUser().sendMessage(ChatColor.GOLD + "Probe added: " + ChatColor.RESET + probe.getId());
+        return true;
+    }
+
+    private void sendReport(ScriptContext context, ProbeRegistry registry) {
+        List<ProbeRegistry.Probe> probes = new ArrayList<>(registry.getProbes());
+        if (probes.isEmpty()) {
+            context.getUser().sendMessage(ChatColor.GOLD + "No probes have been added yet");
+            return;
+        }
+
+        Collections.sort(probes, new Comparator<ProbeRegistry.Probe>() {
+            @Override
+            public int compare(ProbeRegistry.Probe o1, ProbeRegistry.Probe o2) {
+                return Long.compare(o2.getTotalNanos(), o1.getTotalNanos());
+            }
+        });
+
+        context.getUser().sendMessage(ChatColor.GOLD + "Probes (sorted by total time, percentiles are upper bounds):");
+        context.getUser().sendMessage(ChatColor.GRAY + OVERHEAD_NOTE);
+        for (ProbeRegistry.Probe probe : probes) {
+            long calls = probe.getCalls();
+            context.getUser().sendMessage(ChatColor.GRAY + probe.getId() + ": " + ChatColor.RESET
+                                          + calls + " calls, total " + formatNanos(probe.getTotalNanos())
+                                          + ", mean " + formatNanos(calls == 0 ? 0 : probe.getTotalNanos() / calls)
+                                          + ", p50 " + formatNanos(probe.getPercentileNanos(0.5))
+                                          + ", p90 " + formatNanos(probe.getPercentileNanos(0.9))
+                                          + ", p99 " + formatNanos(probe.getPercentileNanos(0.99))
+                                          + ", max " + formatNanos(probe.getMaxNanos())
+                                          + (probe.getResets() > 0 ? ", " + probe.getResets() + " resets after exceptions" : ""));
+        }
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 1000) {
+            return nanos + " ns";
+        }
+        if (nanos < 1000000) {
+            return String.format("%.1f us", nanos / 1000d);
+        }
+        return String.format("%.2f ms", nanos / 1000000d);
+    }
+
+    @Override
+    public String getUsage() {
+        return super.getUsage() + OVERHEAD_NOTE;
+    }
+
+    @Override
+    public boolean languageRequired() {
+        return false;
+    }
+
+    @Nonnull
+    @Override
+    public Options buildOptions(Options parentOptions) {
+        return parentOptions;
+    }
+
+    @Override
+    @Nonnull
+    public String getSyntax() {
+        return "{COMMAND} <class> <method> [argument classes...] | report | reset | clear";
+    }
+}
@@ -18,6 +18,7 @@
 package de.static_interface.sinkscripts.scriptengine.scriptcommand;
 
 import de.static_interface.sinkscripts.scriptengine.scriptcontext.*;
+import de.static_interface.sinkscripts.util.ScriptFileIndex;
 import de.static_interface.sinkscripts.util.Util;
 import org.apache.commons.cli.*;
 import org.bukkit.*;
@@ -63,6 +64,7 @@ public class SaveCommand extends ScriptCommandBase {
         }
         writer.write(context.getCode());
         writer.close();
+        ScriptFileIndex.getInstance().add(context.getScriptLanguage(), scriptFile);
         context.getUser().sendMessage(ChatColor.DARK_GREEN + "Code saved!");
         return true;
     }
@@ -17,7 +17,6 @@
 
 package de.static_interface.sinkscripts.scriptengine.scriptcommand;
 
-import de.static_interface.sinkscripts.scriptengine.ScriptHandler;
 import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -25,6 +24,7 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 import org.bukkit.ChatColor;
 
 import java.io.PrintWriter;
@@ -90,10 +90,24 @@ public abstract class ScriptCommandBase {
 
         if(!result) {
             context.getUser().sendMessage(getUsage());
-            return;
         }
+    }
 
-        ScriptHandler.getInstance().getScriptContexts().put(ScriptHandler.getInstance().userToKey(context.getUser()), context);
+    /**
+     * Parse the options of the command without executing it. Can be called from any thread
+     * @param args the arguments of the command
+     * @return the parsed options or null if the command doesn't have options or the arguments are invalid
+     */
+    @Nullable
+    public CommandLine parseOptions(String[] args) {
+        if (options == null) {
+            return null;
+        }
+        try {
+            return new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            return null;
+        }
     }
 
     protected abstract boolean onExecute(ScriptContext context, String[] args, String label, String nl) throws Exception;
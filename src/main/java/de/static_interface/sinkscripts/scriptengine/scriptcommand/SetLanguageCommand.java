@@ -48,11 +48,17 @@ public class SetLanguageCommand extends ScriptCommandBase {
             return true;
         }
 
+        if (!newLanguage.init()) {
+            context.getUser().sendMessage(ChatColor.RED + "Couldn't initialize " + newLanguage.getName() + ", see the console for details");
+            return true;
+        }
 
-        if(newLanguage.createExecutor(null) == null) {
+        Object executor = newLanguage.createExecutor(null);
+        if(executor == null) {
             context.getUser().sendMessage(ChatColor.RED + "Couldn't create executor!");
             return true;
         }
+        newLanguage.releaseExecutor(executor);
 
         context.setScriptLanguage(newLanguage);
         context.getUser().sendMessage(ChatColor.GOLD + "Language has been set to: " + ChatColor.RED + newLanguage.getName());
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine.scriptcommand;
+
+import de.static_interface.sinkscripts.scriptengine.ScriptHandler;
+import de.static_interface.sinkscripts.scriptengine.ScriptStatistics;
+import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl.ScriptEnginePool;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl.ScriptEngineScript;
+import de.static_interface.sinkscripts.util.FileContentCache;
+import de.static_interface.sinkscripts.util.LruCache;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.bukkit.ChatColor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+public class StatsCommand extends ScriptCommandBase {
+
+    public StatsCommand() {
+        super("stats");
+    }
+
+    @Override
+    protected boolean onExecute(ScriptContext context, String[] args, String label, String nl) throws Exception {
+        ScriptStatistics statistics = ScriptStatistics.getInstance();
+
+        if (cmdLine.hasOption('r')) {
+            statistics.reset();
+            context.getUser().sendMessage(ChatColor.GOLD + "Statistics have been reset");
+            return true;
+        }
+
+        if (cmdLine.hasOption('c')) {
+            sendCacheStatistics(context);
+            return true;
+        }
+
+        String group = cmdLine.hasOption('g') ? cmdLine.getOptionValue('g').toLowerCase() : null;
+        if (group != null && !group.equals("user") && !group.equals("language")) {
+            return false;
+        }
+
+        List<ScriptStatistics.Entry> entries = statistics.getEntries(cmdLine.getOptionValue('u'), cmdLine.getOptionValue('l'));
+        List<Row> rows = new ArrayList<>();
+        Map<String, Row> groups = new LinkedHashMap<>();
+        for (ScriptStatistics.Entry entry : entries) {
+            String name;
+            if (group == null) {
+                name = entry.getUser() + " / " + entry.getLanguage();
+            } else if (group.equals("user")) {
+                name = entry.getUser();
+            } else {
+                name = entry.getLanguage();
+            }
+
+            Row row = groups.get(name);
+            if (row == null) {
+                row = new Row(name);
+                groups.put(name, row);
+                rows.add(row);
+            }
+            row.add(entry);
+        }
+
+        if (rows.isEmpty()) {
+            context.getUser().sendMessage(ChatColor.GOLD + "No executions have been recorded yet");
+            return true;
+        }
+
+        Collections.sort(rows, new Comparator<Row>() {
+            @Override
+            public int compare(Row o1, Row o2) {
+                return Long.compare(o2.cpuNanos, o1.cpuNanos);
+            }
+        });
+
+        context.getUser().sendMessage(ChatColor.GOLD + "Script statistics (sorted by CPU time):");
+        for (Row row : rows) {
+            context.getUser().sendMessage(ChatColor.GRAY + row.name + ": " + ChatColor.RESET
+                                          + row.executions + " runs (" + row.failures + " failed), "
+                                          + "wall " + formatNanos(row.wallNanos) + " (max " + formatNanos(row.maxWallNanos) + "), "
+                                          + "CPU " + formatNanos(row.cpuNanos) + ", "
+                                          + "allocated " + formatBytes(row.allocatedBytes) + ", "
+                                          + "result size " + row.resultSize);
+        }
+        return true;
+    }
+
+    private void sendCacheStatistics(ScriptContext context) {
+        FileContentCache fileCache = FileContentCache.getInstance();
+        context.getUser().sendMessage(ChatColor.GOLD + "Cache statistics:");
+        context.getUser().sendMessage(ChatColor.GRAY + "Script files: " + ChatColor.RESET + formatCache(fileCache.getEntries())
+                                      + ", " + fileCache.getReloads() + " changed files reloaded, "
+                                      + formatBytes(fileCache.getBytesRead()) + " read");
+
+        for (ScriptLanguage language : ScriptHandler.getInstance().getScriptLanguages()) {
+            if (language.getState() != ScriptLanguage.State.READY) {
+                continue;
+            }
+            String message = ChatColor.GRAY + language.getName() + ": " + ChatColor.RESET
+                             + "formatted code " + formatCache(language.getFormattedCodeCache());
+            if (!(language instanceof ScriptEngineScript)) {
+                context.getUser().sendMessage(message);
+                continue;
+            }
+
+            message += ", compiled scripts " + formatCache(((ScriptEngineScript) language).getCompiledScripts());
+            context.getUser().sendMessage(message);
+
+            ScriptEnginePool pool = ((ScriptEngineScript) language).getEnginePool();
+            context.getUser().sendMessage(ChatColor.GRAY + language.getName() + " engines: " + ChatColor.RESET
+                                          + pool.getIdleCount() + " idle (" + pool.getMinSize() + "-" + pool.getMaxSize() + "), "
+                                          + pool.getCreatedCount() + " created, " + pool.getCheckoutCount() + " checkouts, "
+                                          + pool.getHitCount() + " from the pool, " + pool.getReturnedCount() + " returned, "
+                                          + pool.getDiscardedCount() + " discarded");
+        }
+    }
+
+    private static String formatCache(LruCache<?, ?> cache) {
+        return cache.size() + " entries, " + cache.getHits() + " hits, " + cache.getMisses() + " misses";
+    }
+
+    private static String formatNanos(long nanos) {
+        return String.format("%.2f ms", nanos / 1000000d);
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KiB", bytes / 1024d);
+        }
+        return String.format("%.1f MiB", bytes / (1024d * 1024d));
+    }
+
+    @Override
+    public boolean languageRequired() {
+        return false;
+    }
+
+    @Nonnull
+    @Override
+    public Options buildOptions(Options parentOptions) {
+        Option user = Option.builder("u")
+                .hasArg()
+                .longOpt("user")
+                .desc("Show only the statistics of the given user")
+                .type(String.class)
+                .argName("user")
+                .build();
+        Option language = Option.builder("l")
+                .hasArg()
+                .longOpt("language")
+                .desc("Show only the statistics of the given language")
+                .type(String.class)
+                .argName("language")
+                .build();
+        Option group = Option.builder("g")
+                .hasArg()
+                .longOpt("group")
+                .desc("Sum up the statistics per user or per language")
+                .type(String.class)
+                .argName("user|language")
+                .build();
+        Option caches = Option.builder("c")
+                .longOpt("caches")
+                .desc("Show the statistics of the caches")
+                .build();
+        Option reset = Option.builder("r")
+                .longOpt("reset")
+                .desc("Reset all statistics")
+                .build();
+        parentOptions.addOption(user);
+        parentOptions.addOption(language);
+        parentOptions.addOption(group);
+        parentOptions.addOption(caches);
+        parentOptions.addOption(reset);
+        return parentOptions;
+    }
+
+    private static class Row {
+        private final String name;
+        private long executions;
+        private long failures;
+        private long wallNanos;
+        private long maxWallNanos;
+        private long cpuNanos;
+        private long allocatedBytes;
+        private long resultSize;
+
+        private Row(String name) {
+            this.name = name;
+        }
+
+        private void add(ScriptStatistics.Entry entry) {
+            executions += entry.getExecutions();
+            failures += entry.getFailures();
+            wallNanos += entry.getWallNanos();
+            maxWallNanos = Math.max(maxWallNanos, entry.getMaxWallNanos());
+            cpuNanos += entry.getCpuNanos();
+            allocatedBytes += entry.getAllocatedBytes();
+            resultSize += entry.getResultSize();
+        }
+    }
+}
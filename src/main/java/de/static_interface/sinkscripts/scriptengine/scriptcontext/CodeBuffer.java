@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine.scriptcontext;
+
+import de.static_interface.sinkscripts.util.Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * The code of a {@link ScriptContext}, stored line by line.
+ * <p>
+ * Import lines are kept in front of the body, the newest import first. Adding or removing the last line doesn't
+ * copy the code, the code string is only built when it is requested and cached until the buffer changes.
+ */
+public class CodeBuffer {
+
+    private final List<String> imports = new ArrayList<>();
+    private final List<String> body = new ArrayList<>();
+    @Nullable
+    private String code;
+
+    public CodeBuffer() {
+    }
+
+    public CodeBuffer(CodeBuffer buffer) {
+        synchronized (buffer) {
+            imports.addAll(buffer.imports);
+            body.addAll(buffer.body);
+            code = buffer.code;
+        }
+    }
+
+    public synchronized void addLine(String line) {
+        body.add(line);
+        code = null;
+    }
+
+    public synchronized void addImport(String line) {
+        imports.add(line);
+        code = null;
+    }
+
+    /**
+     * Add code to the end of the body
+     * @param code the code, may contain multiple lines
+     */
+    public synchronized void addLines(String code) {
+        body.addAll(split(code));
+        this.code = null;
+    }
+
+    /**
+     * Add code to the start of the body, e.g. a loaded file
+     * @param code the code, may contain multiple lines
+     */
+    public synchronized void prependLines(String code) {
+        body.addAll(0, split(code));
+        this.code = null;
+    }
+
+    /**
+     * Remove the line which has been added last to the body, or the newest import if the body is empty
+     * @return the removed line or null if the buffer is empty
+     */
+    @Nullable
+    public synchronized String removeLastLine() {
+        String line;
+        if (!body.isEmpty()) {
+            line = body.remove(body.size() - 1);
+        } else if (!imports.isEmpty()) {
+            line = imports.remove(imports.size() - 1);
+        } else {
+            return null;
+        }
+        code = null;
+        return line;
+    }
+
+    public synchronized void clear() {
+        imports.clear();
+        body.clear();
+        code = "";
+    }
+
+    public synchronized boolean isEmpty() {
+        return imports.isEmpty() && body.isEmpty();
+    }
+
+    /**
+     * @return the amount of lines, imports included
+     */
+    public synchronized int size() {
+        return imports.size() + body.size();
+    }
+
+    /**
+     * @return a copy of all lines in the order of the code
+     */
+    public synchronized List<String> getLines() {
+        List<String> lines = new ArrayList<>(size());
+        for (int i = imports.size() - 1; i >= 0; i--) {
+            lines.add(imports.get(i));
+        }
+        lines.addAll(body);
+        return lines;
+    }
+
+    /**
+     * @return the import lines, each terminated by a line separator
+     */
+    public synchronized String getImportCode() {
+        String nl = Util.getNewLine();
+        StringBuilder builder = new StringBuilder();
+        for (int i = imports.size() - 1; i >= 0; i--) {
+            builder.append(imports.get(i)).append(nl);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the code, each line terminated by a line separator
+     */
+    @Override
+    public synchronized String toString() {
+        if (code != null) {
+            return code;
+        }
+
+        String nl = Util.getNewLine();
+        int length = 0;
+        for (String line : imports) {
+            length += line.length() + nl.length();
+        }
+        for (String line : body) {
+            length += line.length() + nl.length();
+        }
+
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = imports.size() - 1; i >= 0; i--) {
+            builder.append(imports.get(i)).append(nl);
+        }
+        for (String line : body) {
+            builder.append(line).append(nl);
+        }
+        code = builder.toString();
+        return code;
+    }
+
+    private static List<String> split(String code) {
+        if (code.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return Arrays.asList(code.split("\\r?\\n"));
+    }
+}
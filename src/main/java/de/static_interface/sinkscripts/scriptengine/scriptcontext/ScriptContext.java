@@ -21,6 +21,9 @@ import de.static_interface.sinklibrary.api.user.SinkUser;
 import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
 import org.bukkit.plugin.Plugin;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.annotation.Nullable;
 
 public class ScriptContext {
@@ -28,15 +31,20 @@ public class ScriptContext {
     private final Plugin plugin;
     private final SinkUser user;
     private Object executor;
+    private boolean ownsExecutor;
     private ScriptLanguage language;
-    private String code = "";
+    private final CodeBuffer codeBuffer;
+    private boolean incremental;
+    private final List<String> pendingStatement = new ArrayList<>();
 
     public ScriptContext(SinkUser user, ScriptLanguage language, Plugin plugin) {
         this.user = user;
         this.language = language;
         this.plugin = plugin;
-        if(language != null) {
+        this.codeBuffer = new CodeBuffer();
+        if(language != null && language.init()) {
             this.executor = language.createExecutor(this);
+            this.ownsExecutor = true;
         }
     }
 
@@ -45,23 +53,53 @@ public class ScriptContext {
         this.language = context.getScriptLanguage();
         this.plugin = context.getPlugin();
         this.executor = context.getExecutor();
-        this.code = context.getCode();
+        this.codeBuffer = new CodeBuffer(context.getCodeBuffer());
     }
 
     public Object getExecutor() {
         return executor;
     }
 
-    @Nullable
+    /**
+     * @return the code of this context, built from the {@link CodeBuffer}
+     */
     public String getCode() {
-        return code;
+        return codeBuffer.toString();
     }
 
+    /**
+     * Replace the code of this context
+     * @param code the new code, null to clear the code
+     */
     public void setCode(@Nullable String code) {
-        if(code == null || code.replaceAll("\\Q" + System.lineSeparator() + "\\E", "").equals("null")) {
-            code = "";
+        codeBuffer.clear();
+        if(code == null || code.replace(System.lineSeparator(), "").equals("null")) {
+            return;
         }
-        this.code = code;
+        codeBuffer.addLines(code);
+    }
+
+    public CodeBuffer getCodeBuffer() {
+        return codeBuffer;
+    }
+
+    /**
+     * @return true if every complete statement is evaluated as soon as it has been entered
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        pendingStatement.clear();
+    }
+
+    /**
+     * @return the lines of the incomplete statement in incremental mode
+     */
+    public List<String> getPendingStatement() {
+        return pendingStatement;
     }
 
     public SinkUser getUser() {
@@ -79,8 +117,23 @@ public class ScriptContext {
     }
 
     public void setScriptLanguage(ScriptLanguage language) {
+        releaseExecutor();
         this.language = language;
-        this.executor = language.createExecutor(this);
+        this.executor = language.init() ? language.createExecutor(this) : null;
+        this.ownsExecutor = true;
+    }
+
+    /**
+     * Give the executor back to its language if it was created by this context.
+     * Executors of copied contexts are shared and won't be released
+     */
+    @SuppressWarnings("unchecked")
+    public void releaseExecutor() {
+        if (ownsExecutor && executor != null && language != null) {
+            language.releaseExecutor(executor);
+        }
+        executor = null;
+        ownsExecutor = false;
     }
 
     public Plugin getPlugin() {
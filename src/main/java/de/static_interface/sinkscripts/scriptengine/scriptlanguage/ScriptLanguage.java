@@ -19,38 +19,65 @@ package de.static_interface.sinkscripts.scriptengine.scriptlanguage;
 
 import static de.static_interface.sinkscripts.SinkScripts.SCRIPTS_FOLDER;
 
-import de.static_interface.sinkscripts.scriptengine.ScriptHandler;
+import de.static_interface.sinkscripts.scriptengine.AutoStart;
+import de.static_interface.sinkscripts.scriptengine.ScriptExecution;
+import de.static_interface.sinkscripts.scriptengine.ScriptStatistics;
+import de.static_interface.sinkscripts.scriptengine.ScriptWatchdog;
+import de.static_interface.sinkscripts.scriptengine.TickBudget;
 import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import de.static_interface.sinkscripts.util.LruCache;
+import de.static_interface.sinkscripts.util.ScriptFileIndex;
 import de.static_interface.sinkscripts.util.Util;
-import org.bukkit.ChatColor;
+import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.plugin.Plugin;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public abstract class ScriptLanguage<T> {
+    private static final StatementScanner DEFAULT_STATEMENT_SCANNER = new StatementScanner("\"'", "//");
+
     public File SCRIPTLANGUAGE_DIRECTORY;
     public File FRAMEWORK_FOLDER;
     public File AUTOSTART_DIRECTORY;
     protected String fileExtension;
     protected Plugin plugin;
     protected String name;
+    private final LruCache<String, String> formattedCode;
+    private volatile State state = State.NEW;
+    private volatile long initNanos;
+    private volatile long failedAt;
+
+    /**
+     * Languages are initialized on their first use, see {@link #init()}
+     */
+    public enum State {
+        NEW,
+        INITIALIZING,
+        READY,
+        FAILED
+    }
 
     public ScriptLanguage(Plugin plugin, String name, String fileExtension) {
         this.fileExtension = fileExtension.toLowerCase();
         this.plugin = plugin;
         this.name = name;
+        formattedCode = new LruCache<>(getSetting("format-cache-size", 262144), new LruCache.Weigher<String, String>() {
+            @Override
+            public long weigh(String code, String formatted) {
+                // chars of both strings plus a rough guess for the entry and string objects
+                return code.length() + formatted.length() + 64;
+            }
+        });
         SCRIPTLANGUAGE_DIRECTORY = new File(SCRIPTS_FOLDER, name);
         FRAMEWORK_FOLDER = new File(SCRIPTLANGUAGE_DIRECTORY, "framework");
         AUTOSTART_DIRECTORY = new File(SCRIPTLANGUAGE_DIRECTORY, "autostart");
-        if ((!SCRIPTLANGUAGE_DIRECTORY.exists() && !SCRIPTLANGUAGE_DIRECTORY.mkdirs())
-            || (!FRAMEWORK_FOLDER.exists() && !FRAMEWORK_FOLDER.mkdirs())
-            || (!AUTOSTART_DIRECTORY.exists() && !AUTOSTART_DIRECTORY.mkdirs())) {
-            throw new RuntimeException(getName() + ": Couldn't create required directories!");
-        }
     }
 
     public String getName() {
@@ -61,25 +88,151 @@ public abstract class ScriptLanguage<T> {
         return fileExtension;
     }
 
-    public abstract String formatCode(String code);
+    /**
+     * Get a setting of this language. Values at {@code languages.<name>.<path>} override the global value at {@code <path>}
+     * @param path path of the setting
+     * @param def default value
+     * @return the configured value or def if not set
+     */
+    public int getSetting(String path, int def) {
+        FileConfiguration config = plugin.getConfig();
+        String languagePath = getSettingsPath(path);
+        if (config.contains(languagePath)) {
+            return config.getInt(languagePath, def);
+        }
+        return config.getInt(path, def);
+    }
+
+    /**
+     * Boolean version of {@link #getSetting(String, int)}
+     */
+    public boolean getSetting(String path, boolean def) {
+        FileConfiguration config = plugin.getConfig();
+        String languagePath = getSettingsPath(path);
+        if (config.contains(languagePath)) {
+            return config.getBoolean(languagePath, def);
+        }
+        return config.getBoolean(path, def);
+    }
+
+    /**
+     * String version of {@link #getSetting(String, int)}
+     */
+    public String getSetting(String path, String def) {
+        FileConfiguration config = plugin.getConfig();
+        String languagePath = getSettingsPath(path);
+        if (config.contains(languagePath)) {
+            return config.getString(languagePath, def);
+        }
+        return config.getString(path, def);
+    }
+
+    protected String getSettingsPath(String path) {
+        return "languages." + getName() + "." + path;
+    }
+
+    /**
+     * Color the code for the chat. Results are cached, as the same lines are formatted again and again for the
+     * history and input echo
+     * @param code the code
+     * @return the formatted code
+     */
+    public final String formatCode(String code) {
+        String formatted = formattedCode.get(code);
+        if (formatted == null) {
+            formatted = onFormatCode(code);
+            formattedCode.put(code, formatted);
+        }
+        return formatted;
+    }
+
+    protected abstract String onFormatCode(String code);
+
+    public LruCache<String, String> getFormattedCodeCache() {
+        return formattedCode;
+    }
 
     public Object run(ScriptContext context, String code, boolean skipImports, boolean clear) throws Throwable {
         if (!skipImports) {
             code = onUpdateImports(context, code);
         }
 
-        Object result = eval(context, code);
+        Object result = execute(context, code);
 
         if (clear) {
-            context.setCode("");
+            context.getCodeBuffer().clear();
         }
 
         return result;
     }
 
     protected Object run(ScriptContext context, File file) throws Throwable {
+        return run(context, file, loadScript(context, file));
+    }
+
+    /**
+     * Run a script file which has been loaded with {@link #loadScript(ScriptContext, File)} before
+     * @param context the context
+     * @param file the file
+     * @param code the loaded code of the file
+     * @return the result of the script
+     */
+    public Object run(ScriptContext context, File file, String code) throws Throwable {
         setVariable(context, "scriptfile", file);
-        return eval(context, onUpdateImports(context, Util.loadFile(file)));
+        return execute(context, code);
+    }
+
+    /**
+     * Load a script file and add the imports. Doesn't use the executor of the context, so it can be called from any
+     * thread
+     * @return the code which can be run with {@link #run(ScriptContext, File, String)}
+     */
+    public String loadScript(ScriptContext context, File file) throws IOException {
+        return onUpdateImports(context, Util.loadFile(file));
+    }
+
+    /**
+     * Compile code ahead of its execution, so running it later doesn't have to wait for the compiler. Called from
+     * other threads than the execution, e.g. while loading the autostart scripts in parallel
+     * @param context the context which will run the code, compiled code may be bound to its executor
+     * @param code the code including its imports
+     */
+    public void precompile(ScriptContext context, String code) throws Exception {
+    }
+
+    /**
+     * Evaluate the code while it is watched by the {@link ScriptWatchdog} and record its {@link ScriptStatistics}.
+     * Safe points are added, so the watchdog and tick budgets can stop the script
+     */
+    private Object execute(ScriptContext context, String code) throws Throwable {
+        boolean safePoints = supportsSafePoints();
+        if (!safePoints && TickBudget.getCurrent() != null) {
+            throw new UnsupportedOperationException(getName() + " doesn't support tick budgets");
+        }
+        if (safePoints) {
+            code = addSafePoints(code);
+        }
+
+        ScriptExecution execution = ScriptWatchdog.getInstance().watch(context, this, code);
+        Object result = null;
+        boolean failed = true;
+        try {
+            if (safePoints) {
+                bindSafePoints(context, execution);
+            }
+            try {
+                result = eval(context, code);
+            } finally {
+                if (safePoints) {
+                    removeSafePoints(context);
+                }
+            }
+            failed = false;
+            return result;
+        } finally {
+            execution.finish();
+            ScriptStatistics.getInstance().record(execution, result, failed);
+        }
     }
 
     protected abstract Object eval(ScriptContext context, String code) throws Throwable;
@@ -163,42 +316,99 @@ public abstract class ScriptLanguage<T> {
 
     public abstract String getDefaultImports(ScriptContext context);
 
+    /**
+     * @return true if scripts of this language can be stopped by the {@link ScriptWatchdog} and suspended by a
+     *         {@link TickBudget}
+     */
+    public boolean supportsSafePoints() {
+        return false;
+    }
+
+    /**
+     * Add safe points to the code, at which the script calls {@link ScriptExecution#checkpoint()} and stops if it
+     * returns true. Only called if {@link #supportsSafePoints()} returns true. Must only depend on the code, compiled
+     * scripts are cached with their safe points
+     * @param code the code including its imports
+     * @return the code with safe points
+     */
+    protected String addSafePoints(String code) {
+        return code;
+    }
+
+    /**
+     * Called before code with safe points is run, for languages whose safe points can't find the execution by
+     * themselves
+     * @param context the context which will run the code
+     * @param execution the execution of the code
+     */
+    protected void bindSafePoints(ScriptContext context, ScriptExecution execution) {
+    }
+
+    /**
+     * Called after code with safe points has been run, for languages whose safe points stay in the executor
+     * @param context the context which ran the code
+     */
+    protected void removeSafePoints(ScriptContext context) throws Throwable {
+    }
+
+    /**
+     * Used by the incremental mode of the console to find out if the pending lines can be evaluated
+     * @param lines the pending lines
+     * @return true if the lines form a complete statement
+     */
+    public boolean isStatementComplete(List<String> lines) {
+        StatementScanner scanner = getStatementScanner();
+        return scanner.getBracketDepth(lines) <= 0 && !scanner.endsWithContinuation(lines);
+    }
+
+    /**
+     * Used by the incremental mode of the console: every statement is evaluated as a script of its own, so variables
+     * which are local to a script would be gone before the next statement runs. Languages rewrite such declarations
+     * into variables which persist in the executor, e.g. {@code def x = 1} into {@code x = 1} for groovy
+     * @param line the first line of a statement
+     * @return the line with its declaration rewritten
+     */
+    public String toPersistentDeclaration(String line) {
+        return line;
+    }
+
+    /**
+     * Used by the incremental mode of the console for statements which don't end by themselves, e.g. blocks in python
+     * @param lines the pending lines, they don't form a complete statement yet
+     * @param line the new line
+     * @return false if the pending lines should be evaluated without the new line
+     */
+    public boolean continuesStatement(List<String> lines, String line) {
+        return true;
+    }
+
+    protected StatementScanner getStatementScanner() {
+        return DEFAULT_STATEMENT_SCANNER;
+    }
+
     public abstract void setVariable(ScriptContext context, String name, Object value);
 
     public abstract Collection<String> getImportIdentifiers();
 
     public void onAutoStart(ScriptContext context) {
-        autoStartRecur(AUTOSTART_DIRECTORY, context);
+        if (!init()) {
+            return;
+        }
+        new AutoStart(plugin, Collections.singletonList(context)).run();
     }
 
     public abstract T createExecutor(ScriptContext context);
 
-    private void autoStartRecur(File directory, ScriptContext context) {
-        File[] files = directory.listFiles();
-        if (files == null) {
-            return;
-        }
-        for (File file : files) {
-            try {
-                if (file.isDirectory()) {
-                    autoStartRecur(file, context);
-                } else {
-                    if (!Util.getFileExtension(file).equals(getFileExtension())) {
-                        continue;
-                    }
-
-                    context.getUser().sendMessage(
-                            ChatColor.DARK_GREEN + "[AutoStart] " + ChatColor.GOLD + getName() + ChatColor.WHITE + ": " + file.getName());
-
-                    ScriptHandler.getInstance().setDefaultVariables(context);
-                    run(context, file);
-                }
-            } catch (Throwable thr) {
-                Util.reportException(context.getUser(), thr);
-            }
-        }
+    /**
+     * Called when an executor created by {@link #createExecutor(ScriptContext)} isn't used anymore
+     * @param executor the executor
+     */
+    public void releaseExecutor(T executor) {
     }
 
+    /**
+     * Called before the language gets initialized
+     */
     public void preInit() {
         try {
             onPreInit();
@@ -214,12 +424,61 @@ public abstract class ScriptLanguage<T> {
     public void onPreInit() {
     }
 
-    public final void init() {
+    /**
+     * Initialize the language if it hasn't been initialized yet. Languages are initialized on their first use (e.g.
+     * when a context switches to them), so languages nobody uses don't cost anything. Other threads calling this
+     * method wait until the initialization has finished, so it shouldn't be called from the main thread if the
+     * language isn't ready yet. A failed initialization is tried again once {@code init-retry-delay-ms} have passed
+     * @return true if the language is ready, false if the initialization has failed
+     */
+    public final synchronized boolean init() {
+        if (state == State.READY) {
+            return true;
+        }
+        if (state == State.FAILED
+            && System.nanoTime() - failedAt < TimeUnit.MILLISECONDS.toNanos(getSetting("init-retry-delay-ms", 30000))) {
+            return false;
+        }
+
+        state = State.INITIALIZING;
+        long start = System.nanoTime();
         try {
+            if ((!SCRIPTLANGUAGE_DIRECTORY.exists() && !SCRIPTLANGUAGE_DIRECTORY.mkdirs())
+                || (!FRAMEWORK_FOLDER.exists() && !FRAMEWORK_FOLDER.mkdirs())
+                || (!AUTOSTART_DIRECTORY.exists() && !AUTOSTART_DIRECTORY.mkdirs())) {
+                throw new RuntimeException(getName() + ": Couldn't create required directories!");
+            }
+
+            try {
+                ScriptFileIndex.getInstance().index(this);
+            } catch (IOException e) {
+                // scripts are still found without the index, only slower
+                plugin.getLogger().warning(getName() + ": Couldn't index the script files: " + e);
+            }
+
+            preInit();
             onInit();
+            onPostInit();
+            state = State.READY;
         } catch (Throwable tr) {
+            state = State.FAILED;
+            failedAt = System.nanoTime();
             tr.printStackTrace();
+        } finally {
+            initNanos = System.nanoTime() - start;
         }
+        return state == State.READY;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the time the initialization took in nanoseconds, 0 if it hasn't been initialized yet
+     */
+    public long getInitNanos() {
+        return initNanos;
     }
 
     /**
@@ -227,4 +486,30 @@ public abstract class ScriptLanguage<T> {
      */
     public void onInit() {
     }
+
+    /**
+     * Called after {@link #onInit()}, the language is ready to create executors now
+     */
+    protected void onPostInit() {
+    }
+
+    public final synchronized void disable() {
+        if (state == State.NEW) {
+            return;
+        }
+        try {
+            onDisable();
+        } catch (Throwable tr) {
+            tr.printStackTrace();
+        }
+        ScriptFileIndex.getInstance().remove(this);
+        state = State.NEW;
+        initNanos = 0;
+    }
+
+    /**
+     * Called when the plugin gets disabled
+     */
+    public void onDisable() {
+    }
 }
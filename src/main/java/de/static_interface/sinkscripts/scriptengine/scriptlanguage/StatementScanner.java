@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine.scriptlanguage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds out whether lines of code form a complete statement, for the incremental mode of the console.
+ * <p>
+ * This is only a heuristic: strings and comments are assumed to end at the end of their line.
+ */
+public class StatementScanner {
+
+    private final String quotes;
+    private final String lineComment;
+
+    /**
+     * @param quotes the characters which start and end string literals
+     * @param lineComment the start of a comment which ends at the end of the line
+     */
+    public StatementScanner(String quotes, String lineComment) {
+        this.quotes = quotes;
+        this.lineComment = lineComment;
+    }
+
+    /**
+     * @return the brackets which are still open at the end of the lines
+     */
+    public int getBracketDepth(List<String> lines) {
+        int depth = 0;
+        for (String line : lines) {
+            String code = stripStrings(line);
+            for (int i = 0; i < code.length(); i++) {
+                switch (code.charAt(i)) {
+                    case '(':
+                    case '[':
+                    case '{':
+                        depth++;
+                        break;
+                    case ')':
+                    case ']':
+                    case '}':
+                        depth--;
+                        break;
+                }
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * @return the identifiers and keywords of the line, without strings and comments
+     */
+    public List<String> getWords(String line) {
+        List<String> words = new ArrayList<>();
+        String code = stripStrings(line);
+        int i = 0;
+        while (i < code.length()) {
+            if (!Character.isJavaIdentifierStart(code.charAt(i))) {
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < code.length() && Character.isJavaIdentifierPart(code.charAt(end))) {
+                end++;
+            }
+            words.add(code.substring(i, end));
+            i = end;
+        }
+        return words;
+    }
+
+    /**
+     * @return the line without comment and trailing whitespace
+     */
+    public String stripComment(String line) {
+        return stripStrings(line, true).trim();
+    }
+
+    /**
+     * @return true if the last line ends with an operator, comma, dot or line continuation
+     */
+    public boolean endsWithContinuation(List<String> lines) {
+        if (lines.isEmpty()) {
+            return false;
+        }
+        String code = stripStrings(lines.get(lines.size() - 1), true).trim();
+        if (code.isEmpty()) {
+            return false;
+        }
+        return "\\,.+-*/%=&|<>:".indexOf(code.charAt(code.length() - 1)) >= 0;
+    }
+
+    private String stripStrings(String line) {
+        return stripStrings(line, false);
+    }
+
+    /**
+     * Remove the comment of the line and replace string literals with spaces or, if keepStrings is true, only remove
+     * the comment
+     */
+    private String stripStrings(String line, boolean keepStrings) {
+        StringBuilder builder = new StringBuilder(line.length());
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                    if (keepStrings) {
+                        builder.append(c);
+                        if (i < line.length()) {
+                            builder.append(line.charAt(i));
+                        }
+                    }
+                    continue;
+                }
+                if (c == quote) {
+                    quote = 0;
+                }
+                builder.append(keepStrings ? c : ' ');
+                continue;
+            }
+
+            if (lineComment != null && line.startsWith(lineComment, i)) {
+                break;
+            }
+
+            if (quotes.indexOf(c) >= 0) {
+                quote = c;
+                builder.append(keepStrings ? c : ' ');
+                continue;
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine.scriptlanguage;
+
+import org.bukkit.ChatColor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Colors code for the chat in a single pass.
+ * <p>
+ * Keywords get the color of their table, other identifiers starting with an uppercase letter are colored as classes
+ * (variables may also start with an uppercase letter, but that's good enough for the chat) and string literals are
+ * colored as strings. Instances are immutable after they have been set up and can be shared between threads.
+ */
+public class SyntaxHighlighter {
+
+    public static final ChatColor KEYWORD_COLOR = ChatColor.DARK_BLUE;
+    public static final ChatColor CLASS_COLOR = ChatColor.BLUE;
+    public static final ChatColor STRING_COLOR = ChatColor.RED;
+
+    private static final String RESET = ChatColor.RESET.toString();
+
+    private final Map<String, String> keywords = new HashMap<>();
+    private final String quotes;
+    private final boolean longBrackets;
+
+    /**
+     * @param quotes the characters which start and end string literals
+     * @param longBrackets true if {@code [[ ... ]]} is a string literal, like in lua
+     */
+    public SyntaxHighlighter(String quotes, boolean longBrackets) {
+        this.quotes = quotes;
+        this.longBrackets = longBrackets;
+    }
+
+    /**
+     * Add keywords to the table, should only be called while setting up the highlighter
+     * @param color the color of the keywords
+     * @param words the keywords
+     * @return this highlighter
+     */
+    public SyntaxHighlighter keywords(ChatColor color, String... words) {
+        for (String word : words) {
+            keywords.put(word, color.toString());
+        }
+        return this;
+    }
+
+    public String highlight(String code) {
+        int length = code.length();
+        // most code gets a few color codes, avoid growing the builder for it
+        StringBuilder builder = new StringBuilder(length + (length >> 1) + 16);
+
+        int i = 0;
+        while (i < length) {
+            char c = code.charAt(i);
+
+            if (quotes.indexOf(c) >= 0) {
+                i = appendString(builder, code, i, String.valueOf(c));
+                continue;
+            }
+
+            if (longBrackets && code.startsWith("[[", i)) {
+                i = appendString(builder, code, i, "]]");
+                continue;
+            }
+
+            if (Character.isJavaIdentifierStart(c)) {
+                int end = i + 1;
+                while (end < length && Character.isJavaIdentifierPart(code.charAt(end))) {
+                    end++;
+                }
+                String word = code.substring(i, end);
+
+                // ruby methods like defined?
+                if (end < length && code.charAt(end) == '?' && keywords.containsKey(word + "?")) {
+                    end++;
+                    word += "?";
+                }
+
+                String color = keywords.get(word);
+                if (color == null && Character.isUpperCase(c)) {
+                    color = CLASS_COLOR.toString();
+                }
+
+                if (color == null) {
+                    builder.append(word);
+                } else {
+                    builder.append(color).append(word).append(RESET);
+                }
+                i = end;
+                continue;
+            }
+
+            if (Character.isDigit(c)) {
+                // don't color the identifier like parts of numbers, e.g. 1L or 0xFF
+                int end = i + 1;
+                while (end < length && Character.isJavaIdentifierPart(code.charAt(end))) {
+                    end++;
+                }
+                builder.append(code, i, end);
+                i = end;
+                continue;
+            }
+
+            builder.append(c);
+            i++;
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Append the string literal starting at start
+     * @return the index after the literal
+     */
+    private int appendString(StringBuilder builder, String code, int start, String terminator) {
+        int openingLength = terminator.length();
+        int end = start + openingLength;
+        while (end < code.length()) {
+            char c = code.charAt(end);
+            if (c == '\\' && openingLength == 1) {
+                end += 2;
+                continue;
+            }
+            if (code.startsWith(terminator, end)) {
+                end += terminator.length();
+                break;
+            }
+            end++;
+        }
+        end = Math.min(end, code.length());
+
+        builder.append(STRING_COLOR).append(code, start, end).append(RESET);
+        return end;
+    }
+}
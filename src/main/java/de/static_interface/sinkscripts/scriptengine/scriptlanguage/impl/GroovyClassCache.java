@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+
+/**
+ * Stores the classes groovy generates for a script on disk, so the script doesn't have to be parsed and compiled
+ * again after a restart.
+ * <p>
+ * Every script gets its own directory named after the hash of its code and the versions it was compiled with, so
+ * changed scripts and updates invalidate the cache by themselves. Loading an entry marks it as used, when there are
+ * more entries than allowed the ones which weren't used for the longest time are deleted, so outdated entries don't
+ * pile up. Groovy isn't a compile time dependency, its compiler is used via reflection.
+ */
+class GroovyClassCache {
+
+    private static final String MAIN_CLASS_FILE = "main";
+    // org.codehaus.groovy.control.Phases.CLASS_GENERATION
+    private static final int CLASS_GENERATION = 7;
+
+    private final File directory;
+    private final int maxEntries;
+
+    /**
+     * @param directory the directory of the cache
+     * @param maxEntries the maximum amount of cached scripts, 0 for no limit
+     */
+    GroovyClassCache(File directory, int maxEntries) {
+        this.directory = directory;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Load the script from the cache or compile and store it
+     * @param engine a groovy engine, its class loader will be the parent of the script classes
+     * @param key the key of the script, see {@link ScriptEngineScript#getCacheKey}
+     * @param code the code
+     * @return the compiled script
+     */
+    public CompiledScript getCompiledScript(ScriptEngine engine, String key, String code) throws Exception {
+        File scriptDirectory = new File(directory, key);
+        Map<String, byte[]> classes;
+        String mainClass;
+        if (scriptDirectory.isDirectory()) {
+            mainClass = new String(Files.readAllBytes(new File(scriptDirectory, MAIN_CLASS_FILE).toPath()), "UTF-8");
+            classes = readClasses(scriptDirectory);
+            scriptDirectory.setLastModified(System.currentTimeMillis());
+        } else {
+            mainClass = "Script_" + key;
+            classes = compile(engine, mainClass, code);
+            writeClasses(scriptDirectory, mainClass, classes);
+            prune();
+        }
+
+        ClassLoader parent = (ClassLoader) engine.getClass().getMethod("getClassLoader").invoke(engine);
+        Class<?> scriptClass = new ClassesLoader(parent, classes).loadClass(mainClass);
+
+        // the engine wraps its own compiled classes the same way
+        Class<?> compiledScriptClass = Class.forName("org.codehaus.groovy.jsr223.GroovyCompiledScript", true, engine.getClass().getClassLoader());
+        Constructor<?> constructor = compiledScriptClass.getDeclaredConstructor(engine.getClass(), Class.class);
+        constructor.setAccessible(true);
+        return (CompiledScript) constructor.newInstance(engine, scriptClass);
+    }
+
+    private Map<String, byte[]> compile(ScriptEngine engine, String mainClass, String code) throws Exception {
+        ClassLoader groovyClassLoader = engine.getClass().getClassLoader();
+        Class<?> configClass = Class.forName("org.codehaus.groovy.control.CompilerConfiguration", true, groovyClassLoader);
+        Class<?> loaderClass = Class.forName("groovy.lang.GroovyClassLoader", true, groovyClassLoader);
+        Class<?> unitClass = Class.forName("org.codehaus.groovy.control.CompilationUnit", true, groovyClassLoader);
+
+        Object loader = engine.getClass().getMethod("getClassLoader").invoke(engine);
+        Object unit = unitClass.getConstructor(configClass, CodeSource.class, loaderClass)
+                .newInstance(configClass.newInstance(), null, loader);
+        unitClass.getMethod("addSource", String.class, String.class).invoke(unit, mainClass + ".groovy", code);
+        unitClass.getMethod("compile", int.class).invoke(unit, CLASS_GENERATION);
+
+        Map<String, byte[]> classes = new HashMap<>();
+        for (Object groovyClass : (List<?>) unitClass.getMethod("getClasses").invoke(unit)) {
+            Method getName = groovyClass.getClass().getMethod("getName");
+            Method getBytes = groovyClass.getClass().getMethod("getBytes");
+            classes.put((String) getName.invoke(groovyClass), (byte[]) getBytes.invoke(groovyClass));
+        }
+        return classes;
+    }
+
+    private Map<String, byte[]> readClasses(File scriptDirectory) throws IOException {
+        Map<String, byte[]> classes = new HashMap<>();
+        File[] files = scriptDirectory.listFiles();
+        if (files == null) {
+            throw new IOException("Couldn't read " + scriptDirectory);
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(".class")) {
+                continue;
+            }
+            classes.put(name.substring(0, name.length() - ".class".length()), Files.readAllBytes(file.toPath()));
+        }
+        return classes;
+    }
+
+    private void writeClasses(File scriptDirectory, String mainClass, Map<String, byte[]> classes) throws IOException {
+        // write to a temporary directory first, so other threads or a crash never leave a half written entry
+        File tmp = new File(directory, scriptDirectory.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        if (!tmp.exists() && !tmp.mkdirs()) {
+            throw new IOException("Couldn't create " + tmp);
+        }
+
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            write(new File(tmp, entry.getKey() + ".class"), entry.getValue());
+        }
+        write(new File(tmp, MAIN_CLASS_FILE), mainClass.getBytes("UTF-8"));
+
+        if (!tmp.renameTo(scriptDirectory)) {
+            // another thread was faster
+            delete(tmp);
+        }
+    }
+
+    /**
+     * Delete the entries which weren't used for the longest time until there are no more than {@link #maxEntries}
+     */
+    private synchronized void prune() {
+        File[] entries = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                // skips the temporary directories of entries which are being written
+                return file.isDirectory() && !file.getName().contains(".");
+            }
+        });
+        if (maxEntries <= 0 || entries == null || entries.length <= maxEntries) {
+            return;
+        }
+
+        final Map<File, Long> lastUsed = new HashMap<>();
+        for (File entry : entries) {
+            lastUsed.put(entry, entry.lastModified());
+        }
+        Arrays.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(lastUsed.get(a), lastUsed.get(b));
+            }
+        });
+        for (int i = 0; i < entries.length - maxEntries; i++) {
+            delete(entries[i]);
+        }
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Defines the classes of one script
+     */
+    private static class ClassesLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        private ClassesLoader(@Nullable ClassLoader parent, Map<String, byte[]> classes) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
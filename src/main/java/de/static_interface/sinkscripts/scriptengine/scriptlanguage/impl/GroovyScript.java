@@ -17,152 +17,78 @@
 
 package de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl;
 
+import de.static_interface.sinkscripts.scriptengine.ScriptExecution;
 import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.SyntaxHighlighter;
 import de.static_interface.sinkscripts.util.Util;
 import org.bukkit.ChatColor;
 import org.bukkit.plugin.Plugin;
 
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
 
 public class GroovyScript extends ScriptEngineScript {
 
+    private static final SyntaxHighlighter HIGHLIGHTER = new SyntaxHighlighter("\"'", false)
+            .keywords(ChatColor.GOLD,
+                      "import", "package", "null", "true", "false")
+            .keywords(SyntaxHighlighter.KEYWORD_COLOR,
+                      "class", "implements", "extends", "enum", "interface", "public", "private", "protected", "final",
+                      "static", "native", "throws", "transient", "volatile", "synchronized", "strictfp", "const", "try",
+                      "catch", "finally", "throw", "for", "while", "continue", "void", "return", "switch", "case",
+                      "default", "super", "goto", "new", "this", "if", "else", "instanceof", "assert", "int", "boolean",
+                      "long", "short", "float", "byte", "char");
+
+    // declarations of script variables, they are local to the script which declares them
+    private static final Pattern DEF_ASSIGNMENT = Pattern.compile("^(\\s*)def\\s+([A-Za-z_$][\\w$]*\\s*=(?!=))");
+    private static final Pattern DEF_DECLARATION = Pattern.compile("^(\\s*)def\\s+([A-Za-z_$][\\w$]*)\\s*(;|$)");
+
+    private GroovyClassCache classCache;
+    private volatile boolean classCacheFailed;
+
     public GroovyScript(Plugin plugin) {
         super(plugin, "groovy", "groovy", "groovy");
     }
 
     @Override
-    public String formatCode(String code) {
-        ChatColor defaultColor = ChatColor.DARK_BLUE;
-        ChatColor codeColor = ChatColor.RESET;
-        ChatColor classColor = ChatColor.BLUE;
-        ChatColor stringColor = ChatColor.RED;
-
-        HashMap<String, ChatColor> syntaxColors = new HashMap<>();
-        syntaxColors.put("import", ChatColor.GOLD);
-        syntaxColors.put("package", ChatColor.GOLD);
-
-        syntaxColors.put("class", defaultColor);
-        syntaxColors.put("implements", defaultColor);
-        syntaxColors.put("extends", defaultColor);
-        syntaxColors.put("enum", defaultColor);
-        syntaxColors.put("interface", defaultColor);
-
-        syntaxColors.put("public", defaultColor);
-        syntaxColors.put("private", defaultColor);
-        syntaxColors.put("protected", defaultColor);
-
-        syntaxColors.put("final", defaultColor);
-        syntaxColors.put("static", defaultColor);
-        syntaxColors.put("native", defaultColor);
-        syntaxColors.put("throws", defaultColor);
-        syntaxColors.put("transient", defaultColor);
-        syntaxColors.put("volatile", defaultColor);
-        syntaxColors.put("synchronized", defaultColor);
-        syntaxColors.put("strictfp", defaultColor);
-        syntaxColors.put("const", defaultColor);
-
-        syntaxColors.put("try", defaultColor);
-        syntaxColors.put("catch", defaultColor);
-        syntaxColors.put("finally", defaultColor);
-        syntaxColors.put("throw", defaultColor);
-
-        syntaxColors.put("for", defaultColor);
-        syntaxColors.put("while", defaultColor);
-        syntaxColors.put("continue", defaultColor);
-
-        syntaxColors.put("void", defaultColor);
-        syntaxColors.put("return", defaultColor);
-        syntaxColors.put("switch", defaultColor);
-        syntaxColors.put("case", defaultColor);
-        syntaxColors.put("default", defaultColor);
-        syntaxColors.put("super", defaultColor);
-        syntaxColors.put("goto", defaultColor);
-
-        syntaxColors.put("new", defaultColor);
-        syntaxColors.put("this", defaultColor);
-        syntaxColors.put("null", ChatColor.GOLD);
-
-        syntaxColors.put("if", defaultColor);
-        syntaxColors.put("else", defaultColor);
-        syntaxColors.put("instanceof", defaultColor);
-        syntaxColors.put("assert", defaultColor);
-
-        syntaxColors.put("true", ChatColor.GOLD);
-        syntaxColors.put("false", ChatColor.GOLD);
-
-        syntaxColors.put("int", defaultColor);
-        syntaxColors.put("boolean", defaultColor);
-        syntaxColors.put("long", defaultColor);
-        syntaxColors.put("short", defaultColor);
-        syntaxColors.put("float", defaultColor);
-        syntaxColors.put("byte", defaultColor);
-        syntaxColors.put("char", defaultColor);
-
-        for (String keyWord : syntaxColors.keySet()) {
-            ChatColor color = syntaxColors.get(keyWord);
-            code = code.replace(" " + keyWord + " ", color + " " + keyWord + " " + ChatColor.RESET);
-            code = code.replace(" " + keyWord, color + " " + keyWord + ChatColor.RESET);
-            code = code.replace(keyWord + " ", color + keyWord + " " + ChatColor.RESET);
+    protected CompiledScript compile(ScriptEngine engine, String code, boolean persistent) throws ScriptException {
+        if (!persistent || classCacheFailed) {
+            return super.compile(engine, code, persistent);
         }
 
-        //Set class color, its not the best solution, because variables may also start with an uppercase name
-        boolean classStart = false;
-        char lastChar = 0;
-        String tmp = "";
-        for (char Char : code.toCharArray()) {
-            boolean t = false;
-            if (!Character.isAlphabetic(lastChar) && Character.isUpperCase(Char) && !classStart) {
-                classStart = true;
-                t = true;
-            }
-
-            if (!classStart) {
-                tmp += Char;
-                continue;
-            }
-
-            if (!Character.isAlphabetic(Char)
-                && !t)//if(Char == '.' || Char == ' ' || Char == ';' || Char == '+' || Char == '-' || Char == '*' || Char == ':' || Char == '/')
-            {
-                classStart = false;
-                tmp += ChatColor.RESET + "" + Char;
-                continue;
-            }
-
-            tmp += classColor + "" + Char;
-            lastChar = Char;
+        try {
+            return getClassCache().getCompiledScript(engine, getCacheKey(engine, code), code);
+        } catch (InvocationTargetException e) {
+            // compile error, let the engine report it the usual way
+            return super.compile(engine, code, persistent);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // the groovy version doesn't match what the cache expects, don't try again
+            classCacheFailed = true;
+            plugin.getLogger().warning("Couldn't use the groovy class cache, scripts won't be cached on disk: " + e);
+            return super.compile(engine, code, persistent);
+        } catch (Exception e) {
+            plugin.getLogger().warning("Couldn't cache groovy script on disk: " + e);
+            return super.compile(engine, code, persistent);
         }
+    }
 
-        code = tmp;
-        tmp = "";
-        lastChar = 0;
-
-        boolean stringStart = false;
-
-        //Set String color
-        for (char Char : code.toCharArray()) {
-            if (Char == '"' && lastChar != '\\') {
-                if (!stringStart) {
-                    tmp += stringColor;
-                }
-
-                tmp += Char;
-
-                if (stringStart) {
-                    tmp += codeColor;
-                }
-
-                stringStart = !stringStart;
-            } else {
-                tmp += Char;
-            }
-            lastChar = Char;
+    private synchronized GroovyClassCache getClassCache() {
+        if (classCache == null) {
+            classCache = new GroovyClassCache(getCacheDirectory(), getSetting("disk-cache.max-entries", 256));
         }
+        return classCache;
+    }
 
-        return tmp;
+    @Override
+    protected String onFormatCode(String code) {
+        return HIGHLIGHTER.highlight(code);
     }
 
     @Override
@@ -185,6 +111,19 @@ public class GroovyScript extends ScriptEngineScript {
     }
 
 
+    @Override
+    public boolean supportsSafePoints() {
+        return true;
+    }
+
+    @Override
+    protected String addSafePoints(String code) {
+        // ConditionalInterrupt checks the condition at the start of every loop, closure and method
+        String nl = Util.getNewLine();
+        return "@groovy.transform.ConditionalInterrupt({ " + ScriptExecution.class.getName() + ".checkpoint() })" + nl +
+               "import groovy.transform.ConditionalInterrupt" + nl + code;
+    }
+
     @Override
     public Collection<String> getImportIdentifiers() {
         List<String> importIdentifiers = new ArrayList<>();
@@ -192,4 +131,11 @@ public class GroovyScript extends ScriptEngineScript {
         importIdentifiers.add("package");
         return importIdentifiers;
     }
+
+    @Override
+    public String toPersistentDeclaration(String line) {
+        // variables without declaration are stored in the binding of the engine
+        line = DEF_ASSIGNMENT.matcher(line).replaceFirst("$1$2");
+        return DEF_DECLARATION.matcher(line).replaceFirst("$1$2 = null$3");
+    }
 }
@@ -18,164 +18,34 @@
 package de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl;
 
 import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.SyntaxHighlighter;
 import org.bukkit.ChatColor;
 import org.bukkit.plugin.Plugin;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 
 public class JavaScriptScript extends ScriptEngineScript {
 
+    private static final SyntaxHighlighter HIGHLIGHTER = new SyntaxHighlighter("\"'", false)
+            .keywords(ChatColor.GOLD,
+                      "import", "package", "false", "null", "true")
+            .keywords(SyntaxHighlighter.KEYWORD_COLOR,
+                      "abstract", "case", "continue", "double", "extends", "for", "let", "short", "this", "try",
+                      "while", "arguments", "catch", "debugger", "else", "function", "in", "long", "private", "static",
+                      "throw", "typeof", "with", "boolean", "char", "default", "enum", "final", "goto", "instanceof",
+                      "native", "protected", "super", "throws", "var", "yield", "break", "class", "delete", "eval",
+                      "finally", "if", "int", "new", "public", "switch", "transient", "void", "byte", "const", "do",
+                      "export", "float", "implements", "interface", "return", "synchronized", "volatile", "isFinite",
+                      "NaN", "name", "length", "valueOf", "hasOwnProperty", "toString");
+
     public JavaScriptScript(Plugin plugin) {
         super(plugin, "javascript", "js", "JavaScript");
     }
 
     @Override
-    public String formatCode(String code) {
-        ChatColor defaultColor = ChatColor.DARK_BLUE;
-        ChatColor codeColor = ChatColor.RESET;
-        ChatColor classColor = ChatColor.BLUE;
-        ChatColor stringColor = ChatColor.RED;
-
-        HashMap<String, ChatColor> syntaxColors = new HashMap<>();
-        syntaxColors.put("import", ChatColor.GOLD);
-        syntaxColors.put("package", ChatColor.GOLD);
-
-        syntaxColors.put("abstract", defaultColor);
-        syntaxColors.put("case", defaultColor);
-        syntaxColors.put("continue", defaultColor);
-        syntaxColors.put("double", defaultColor);
-        syntaxColors.put("extends", defaultColor);
-        syntaxColors.put("for", defaultColor);
-        syntaxColors.put("let", defaultColor);
-        syntaxColors.put("short", defaultColor);
-        syntaxColors.put("this", defaultColor);
-        syntaxColors.put("try", defaultColor);
-        syntaxColors.put("while", defaultColor);
-        syntaxColors.put("arguments", defaultColor);
-        syntaxColors.put("catch", defaultColor);
-        syntaxColors.put("debugger", defaultColor);
-        syntaxColors.put("else", defaultColor);
-        syntaxColors.put("false", ChatColor.GOLD);
-        syntaxColors.put("function", defaultColor);
-        syntaxColors.put("in", defaultColor);
-        syntaxColors.put("long", defaultColor);
-        syntaxColors.put("private", defaultColor);
-        syntaxColors.put("static", defaultColor);
-        syntaxColors.put("throw", defaultColor);
-        syntaxColors.put("typeof", defaultColor);
-        syntaxColors.put("with", defaultColor);
-        syntaxColors.put("boolean", defaultColor);
-        syntaxColors.put("char", defaultColor);
-        syntaxColors.put("default", defaultColor);
-        syntaxColors.put("enum", defaultColor);
-        syntaxColors.put("final", defaultColor);
-        syntaxColors.put("goto", defaultColor);
-        syntaxColors.put("instanceof", defaultColor);
-        syntaxColors.put("native", defaultColor);
-        syntaxColors.put("protected", defaultColor);
-        syntaxColors.put("super", defaultColor);
-        syntaxColors.put("throws", defaultColor);
-        syntaxColors.put("var", defaultColor);
-        syntaxColors.put("yield", defaultColor);
-        syntaxColors.put("break", defaultColor);
-        syntaxColors.put("class", defaultColor);
-        syntaxColors.put("delete", defaultColor);
-        syntaxColors.put("eval", defaultColor);
-        syntaxColors.put("finally", defaultColor);
-        syntaxColors.put("if", defaultColor);
-        syntaxColors.put("int", defaultColor);
-        syntaxColors.put("new", defaultColor);
-        syntaxColors.put("public", defaultColor);
-        syntaxColors.put("switch", defaultColor);
-        syntaxColors.put("transient", defaultColor);
-        syntaxColors.put("void", defaultColor);
-        syntaxColors.put("byte", defaultColor);
-        syntaxColors.put("const", defaultColor);
-        syntaxColors.put("do", defaultColor);
-        syntaxColors.put("export", defaultColor);
-        syntaxColors.put("float", defaultColor);
-        syntaxColors.put("implements", defaultColor);
-        syntaxColors.put("interface", defaultColor);
-        syntaxColors.put("null", ChatColor.GOLD);
-        syntaxColors.put("return", defaultColor);
-        syntaxColors.put("synchronized", defaultColor);
-        syntaxColors.put("true", ChatColor.GOLD);
-        syntaxColors.put("volatile", defaultColor);
-        syntaxColors.put("isFinite", defaultColor);
-        syntaxColors.put("NaN", defaultColor);
-        syntaxColors.put("name", defaultColor);
-        syntaxColors.put("eval", defaultColor);
-        syntaxColors.put("function", defaultColor);
-        syntaxColors.put("length", defaultColor);
-        syntaxColors.put("valueOf", defaultColor);
-        syntaxColors.put("hasOwnProperty", defaultColor);
-        syntaxColors.put("toString", defaultColor);
-        syntaxColors.put("const", defaultColor);
-
-        for (String keyWord : syntaxColors.keySet()) {
-            ChatColor color = syntaxColors.get(keyWord);
-            code = code.replace(" " + keyWord + " ", color + " " + keyWord + " " + ChatColor.RESET);
-            code = code.replace(" " + keyWord, color + " " + keyWord + ChatColor.RESET);
-            code = code.replace(keyWord + " ", color + keyWord + " " + ChatColor.RESET);
-        }
-
-        //Set class color, its not the best solution, because variables may also start with an uppercase name
-        boolean classStart = false;
-        char lastChar = 0;
-        String tmp = "";
-        for (char Char : code.toCharArray()) {
-            boolean t = false;
-            if (!Character.isAlphabetic(lastChar) && Character.isUpperCase(Char) && !classStart) {
-                classStart = true;
-                t = true;
-            }
-
-            if (!classStart) {
-                tmp += Char;
-                continue;
-            }
-
-            if (!Character.isAlphabetic(Char)
-                && !t)//if(Char == '.' || Char == ' ' || Char == ';' || Char == '+' || Char == '-' || Char == '*' || Char == ':' || Char == '/')
-            {
-                classStart = false;
-                tmp += ChatColor.RESET + "" + Char;
-                continue;
-            }
-
-            tmp += classColor + "" + Char;
-            lastChar = Char;
-        }
-
-        code = tmp;
-        tmp = "";
-        lastChar = 0;
-
-        boolean stringStart = false;
-
-        //Set String color
-        for (char Char : code.toCharArray()) {
-            if (Char == '"' && lastChar != '\\') {
-                if (!stringStart) {
-                    tmp += stringColor;
-                }
-
-                tmp += Char;
-
-                if (stringStart) {
-                    tmp += codeColor;
-                }
-
-                stringStart = !stringStart;
-            } else {
-                tmp += Char;
-            }
-            lastChar = Char;
-        }
-
-        return tmp;
+    protected String onFormatCode(String code) {
+        return HIGHLIGHTER.highlight(code);
     }
 
     @Override
@@ -187,4 +57,10 @@ public class JavaScriptScript extends ScriptEngineScript {
     public Collection<String> getImportIdentifiers() {
         return new ArrayList<>(); // Todo!
     }
+
+    @Override
+    protected boolean isEngineResettable() {
+        // Nashorn keeps all state of the scripts in the global of the ENGINE_SCOPE bindings, the pool replaces it
+        return true;
+    }
 }
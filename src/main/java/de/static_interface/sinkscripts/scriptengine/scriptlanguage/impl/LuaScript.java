@@ -17,125 +17,107 @@
 
 package de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl;
 
+import de.static_interface.sinkscripts.scriptengine.ScriptExecution;
 import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.StatementScanner;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.SyntaxHighlighter;
 import org.bukkit.ChatColor;
 import org.bukkit.plugin.Plugin;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
 
 public class LuaScript extends ScriptEngineScript {
 
+    private static final StatementScanner STATEMENT_SCANNER = new StatementScanner("\"'", "--");
+    // while and for blocks are started by their do
+    private static final List<String> BLOCK_STARTS = Arrays.asList("function", "do", "if", "repeat");
+    private static final List<String> BLOCK_ENDS = Arrays.asList("end", "until");
+    // local declarations, they are local to the chunk which declares them
+    private static final Pattern LOCAL_FUNCTION = Pattern.compile("^(\\s*)local\\s+(function\\s)");
+    private static final Pattern LOCAL_DECLARATION = Pattern.compile("^(\\s*)local\\s+([A-Za-z_]\\w*(?:\\s*,\\s*[A-Za-z_]\\w*)*)\\s*(;|$)");
+    private static final Pattern LOCAL_ASSIGNMENT = Pattern.compile("^(\\s*)local\\s+([A-Za-z_])");
+
+    private static final SyntaxHighlighter HIGHLIGHTER = new SyntaxHighlighter("\"'", true)
+            .keywords(SyntaxHighlighter.KEYWORD_COLOR,
+                      "and", "end", "in", "repeat", "break", "false", "local", "return", "do", "for", "nil", "then",
+                      "else", "function", "not", "true", "elseif", "if", "or", "until", "while");
+
     public LuaScript(Plugin plugin) {
         super(plugin, "lua", "lua", "luaj");
         System.setProperty("org.luaj.debug", "true");
     }
 
     @Override
-    public String formatCode(String code) {
-        ChatColor defaultColor = ChatColor.DARK_BLUE;
-        ChatColor codeColor = ChatColor.RESET;
-        ChatColor classColor = ChatColor.BLUE;
-        ChatColor stringColor = ChatColor.RED;
-
-        HashMap<String, ChatColor> syntaxColors = new HashMap<>();
-
-        syntaxColors.put("and", defaultColor);
-        syntaxColors.put("end", defaultColor);
-        syntaxColors.put("in", defaultColor);
-        syntaxColors.put("repeat", defaultColor);
-        syntaxColors.put("break", defaultColor);
-        syntaxColors.put("false", defaultColor);
-        syntaxColors.put("local", defaultColor);
-        syntaxColors.put("return", defaultColor);
-        syntaxColors.put("do", defaultColor);
-        syntaxColors.put("for", defaultColor);
-        syntaxColors.put("nil", defaultColor);
-        syntaxColors.put("then", defaultColor);
-        syntaxColors.put("else", defaultColor);
-        syntaxColors.put("function", defaultColor);
-        syntaxColors.put("not", defaultColor);
-        syntaxColors.put("true", defaultColor);
-        syntaxColors.put("elseif", defaultColor);
-        syntaxColors.put("if", defaultColor);
-        syntaxColors.put("or", defaultColor);
-        syntaxColors.put("until", defaultColor);
-        syntaxColors.put("while", defaultColor);
-
-        for (String keyWord : syntaxColors.keySet()) {
-            ChatColor color = syntaxColors.get(keyWord);
-            code = code.replace(" " + keyWord + " ", color + " " + keyWord + " " + ChatColor.RESET);
-            code = code.replace(" " + keyWord, color + " " + keyWord + ChatColor.RESET);
-            code = code.replace(keyWord + " ", color + keyWord + " " + ChatColor.RESET);
-        }
+    protected String onFormatCode(String code) {
+        return HIGHLIGHTER.highlight(code);
+    }
 
-        //Set class color, its not the best solution, because variables may also start with an uppercase name
-        boolean classStart = false;
-        char lastChar = 0;
-        String tmp = "";
-        for (char Char : code.toCharArray()) {
-            boolean t = false;
-            if (!Character.isAlphabetic(lastChar) && Character.isUpperCase(Char) && !classStart) {
-                classStart = true;
-                t = true;
-            }
+    @Override
+    public String getDefaultImports(ScriptContext context) {
+        return ""; //??
+    }
 
-            if (!classStart) {
-                tmp += Char;
-                continue;
-            }
+    @Override
+    public Collection<String> getImportIdentifiers() {
+        return null; //none?
+    }
 
-            if (!Character.isAlphabetic(Char)
-                && !t)//if(Char == '.' || Char == ' ' || Char == ';' || Char == '+' || Char == '-' || Char == '*' || Char == ':' || Char == '/')
-            {
-                classStart = false;
-                tmp += ChatColor.RESET + "" + Char;
-                continue;
-            }
+    @Override
+    public boolean supportsSafePoints() {
+        return true;
+    }
 
-            tmp += classColor + "" + Char;
-            lastChar = Char;
-        }
+    @Override
+    protected String addSafePoints(String code) {
+        // the hook is called every 1000 instructions
+        return "debug.sethook(function() if __execution and __execution:check() then error(\"Execution cancelled\") end end, \"\", 1000) " + code;
+    }
 
-        code = tmp;
-        tmp = "";
-
-        char startChar = 0;
-        boolean resetColor = false;
-        //Set String color
-        for (char Char : code.toCharArray()) {
-            if (Char == startChar) {
-                tmp += Char;
-                startChar = 0;
-                resetColor = true;
-            } else if (Char == '\'' || Char == '"' || (Char == '^' && lastChar == 'q')) {
-                if (startChar == 0 && Char != ']') {
-                    startChar = Char;
-                }
+    @Override
+    protected void bindSafePoints(ScriptContext context, ScriptExecution execution) {
+        // luajava can't see plugin classes, so the execution is passed as variable
+        setVariable(context, "__execution", execution);
+    }
 
-                tmp += stringColor;
-                tmp += Char;
-            } else if (resetColor) {
-                tmp += codeColor;
-                tmp += Char;
-                resetColor = false;
-            } else {
-                tmp += Char;
-            }
+    @Override
+    protected void removeSafePoints(ScriptContext context) throws Throwable {
+        // the hook belongs to the globals of the engine, it would still be called by code evaluated without it
+        eval(context, "debug.sethook()");
+        setVariable(context, "__execution", null);
+    }
 
-            lastChar = Char;
+    @Override
+    public boolean isStatementComplete(List<String> lines) {
+        if (!super.isStatementComplete(lines)) {
+            return false;
         }
 
-        return tmp;
+        int depth = 0;
+        for (String line : lines) {
+            for (String word : STATEMENT_SCANNER.getWords(line)) {
+                if (BLOCK_STARTS.contains(word)) {
+                    depth++;
+                } else if (BLOCK_ENDS.contains(word)) {
+                    depth--;
+                }
+            }
+        }
+        return depth <= 0;
     }
 
     @Override
-    public String getDefaultImports(ScriptContext context) {
-        return ""; //??
+    protected StatementScanner getStatementScanner() {
+        return STATEMENT_SCANNER;
     }
 
     @Override
-    public Collection<String> getImportIdentifiers() {
-        return null; //none?
+    public String toPersistentDeclaration(String line) {
+        // globals are kept by the engine
+        line = LOCAL_FUNCTION.matcher(line).replaceFirst("$1$2");
+        line = LOCAL_DECLARATION.matcher(line).replaceFirst("$1$2 = nil$3");
+        return LOCAL_ASSIGNMENT.matcher(line).replaceFirst("$1$2");
     }
 }
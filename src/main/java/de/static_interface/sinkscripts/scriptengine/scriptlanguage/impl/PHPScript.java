@@ -35,7 +35,7 @@ public class PHPScript extends ScriptEngineScript {
     }
 
     @Override
-    public String formatCode(String code) {
+    protected String onFormatCode(String code) {
         return code;
     }
 
@@ -20,127 +20,44 @@ package de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl;
 import de.static_interface.sinklibrary.SinkLibrary;
 import de.static_interface.sinkscripts.SinkScripts;
 import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.StatementScanner;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.SyntaxHighlighter;
 import de.static_interface.sinkscripts.util.Util;
 import org.bukkit.ChatColor;
 import org.bukkit.plugin.Plugin;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 
+import javax.script.ScriptEngine;
+
 public class PythonScript extends ScriptEngineScript {
 
+    private static final StatementScanner STATEMENT_SCANNER = new StatementScanner("\"'", "#");
+    private static final List<String> BLOCK_CONTINUATIONS = Arrays.asList("elif", "else", "except", "finally");
+
+    private static final SyntaxHighlighter HIGHLIGHTER = new SyntaxHighlighter("\"'", false)
+            .keywords(ChatColor.GOLD,
+                      "from", "import", "True", "False")
+            .keywords(SyntaxHighlighter.KEYWORD_COLOR,
+                      "and", "del", "not", "while", "as", "elif", "global", "or", "with", "assert", "else", "if",
+                      "pass", "yield", "break", "except", "print", "class", "exec", "in", "raise", "continue",
+                      "finally", "is", "return", "def", "for", "lambda", "try");
+
     public PythonScript(Plugin plugin) {
         super(plugin, "python", "py", "jython");
     }
 
     @Override
-    public String formatCode(String code) {
-        ChatColor defaultColor = ChatColor.DARK_BLUE;
-        ChatColor codeColor = ChatColor.RESET;
-        ChatColor classColor = ChatColor.BLUE;
-        ChatColor stringColor = ChatColor.RED;
-
-        //Set class color, its not the best solution, because variables may also start with an uppercase name
-        boolean classStart = false;
-        char lastChar = 0;
-        String tmp = "";
-        for (char Char : code.toCharArray()) {
-            boolean t = false;
-            if (!Character.isAlphabetic(lastChar) && Character.isUpperCase(Char) && !classStart) {
-                classStart = true;
-                t = true;
-            }
-
-            if (!classStart) {
-                tmp += Char;
-                continue;
-            }
-
-            if (!Character.isAlphabetic(Char)
-                && !t)//if(Char == '.' || Char == ' ' || Char == ';' || Char == '+' || Char == '-' || Char == '*' || Char == ':' || Char == '/')
-            {
-                classStart = false;
-                tmp += ChatColor.RESET + "" + Char;
-                continue;
-            }
-
-            tmp += classColor + "" + Char;
-            lastChar = Char;
-        }
-
-        code = tmp;
-
-        HashMap<String, ChatColor> syntaxColors = new HashMap<>();
-
-        syntaxColors.put("and", defaultColor);
-        syntaxColors.put("del", defaultColor);
-        syntaxColors.put("from", ChatColor.GOLD);
-        syntaxColors.put("not", defaultColor);
-        syntaxColors.put("while", defaultColor);
-        syntaxColors.put("as", defaultColor);
-        syntaxColors.put("elif", defaultColor);
-        syntaxColors.put("global", defaultColor);
-        syntaxColors.put("or", defaultColor);
-        syntaxColors.put("with", defaultColor);
-        syntaxColors.put("assert", defaultColor);
-        syntaxColors.put("else", defaultColor);
-        syntaxColors.put("if", defaultColor);
-        syntaxColors.put("pass", defaultColor);
-        syntaxColors.put("yiel", defaultColor);
-        syntaxColors.put("break", defaultColor);
-        syntaxColors.put("except", defaultColor);
-        syntaxColors.put("import", ChatColor.GOLD);
-        syntaxColors.put("print", defaultColor);
-        syntaxColors.put("class", defaultColor);
-        syntaxColors.put("exec", defaultColor);
-        syntaxColors.put("in", defaultColor);
-        syntaxColors.put("raise", defaultColor);
-        syntaxColors.put("continue", defaultColor);
-        syntaxColors.put("finally", defaultColor);
-        syntaxColors.put("is", defaultColor);
-        syntaxColors.put("return", defaultColor);
-        syntaxColors.put("def", defaultColor);
-        syntaxColors.put("for", defaultColor);
-        syntaxColors.put("lambda", defaultColor);
-        syntaxColors.put("try", defaultColor);
-
-        syntaxColors.put("True", ChatColor.GOLD);
-        syntaxColors.put("False", ChatColor.GOLD);
-        for (String keyWord : syntaxColors.keySet()) {
-            ChatColor color = syntaxColors.get(keyWord);
-            code = code.replace(" " + keyWord + " ", color + " " + keyWord + " " + ChatColor.RESET);
-            code = code.replace(" " + keyWord, color + " " + keyWord + ChatColor.RESET);
-            code = code.replace(keyWord + " ", color + keyWord + " " + ChatColor.RESET);
-        }
-
-        tmp = "";
-
-        char startChar = 0;
-        //Set String color
-        for (char Char : code.toCharArray()) {
-            if (Char == startChar) {
-                if ((Char == ']' && lastChar == ']') || Char != ']') {
-                    tmp += codeColor;
-                }
-                tmp += Char;
-                startChar = 0;
-            } else if (Char == '\'' || Char == '"' || (Char == '[' && lastChar == '[')) {
-                if (startChar == 0 && Char != ']') {
-                    startChar = Char;
-                }
-
-                tmp += stringColor;
-                tmp += Char;
-            } else {
-                tmp += Char;
-            }
-            lastChar = Char;
-        }
-
-        return tmp;
+    protected String onFormatCode(String code) {
+        return HIGHLIGHTER.highlight(code);
     }
 
     @Override
@@ -162,6 +79,12 @@ public class PythonScript extends ScriptEngineScript {
             System.getenv().put("JYTHON_HOME", FRAMEWORK_FOLDER.getAbsolutePath());
         } catch (UnsupportedOperationException ignored) {
         }
+
+        if (getSetting("disk-cache.enabled", true)) {
+            // jython keeps the scanned java packages there and writes $py.class files for imported modules by itself
+            System.setProperty("python.cachedir", new File(getCacheDirectory(), "packages").getAbsolutePath());
+            System.setProperty("python.cachedir.skip", "false");
+        }
     }
 
     @Override
@@ -170,18 +93,88 @@ public class PythonScript extends ScriptEngineScript {
         if (jynxDirectory.exists()) {
             setupJynx(jynxDirectory);
         } else {
-            SinkScripts.getInstance().getLogger().warning("Warning! Couldn't find jynx! Missing directory: " + jynxDirectory.getAbsolutePath());
+            plugin.getLogger().warning("Warning! Couldn't find jynx! Missing directory: " + jynxDirectory.getAbsolutePath());
         }
     }
 
     private void setupJynx(File jynx) {
         File setup = new File(jynx, "setup.py");
-        if (setup.exists()) {
-            try {
-                run(SinkScripts.getInstance().getConsoleContext(), setup);
-            } catch (Throwable throwable) {
-                Util.reportException(SinkLibrary.getInstance().getConsoleUser(), throwable);
+        if (!setup.exists()) {
+            return;
+        }
+
+        // setup.py only has to run again if it or jython have changed
+        File marker = new File(getCacheDirectory(), "setup.hash");
+        boolean diskCache = getSetting("disk-cache.enabled", true);
+        try {
+            String hash = null;
+            if (diskCache) {
+                hash = getSetupHash(setup);
+                if (marker.exists() && hash.equals(Util.loadFile(marker).trim())) {
+                    return;
+                }
             }
+
+            run(SinkScripts.getInstance().getConsoleContext(), setup);
+
+            if (diskCache) {
+                writeMarker(marker, hash);
+            }
+        } catch (Throwable throwable) {
+            Util.reportException(SinkLibrary.getInstance().getConsoleUser(), throwable);
+        }
+    }
+
+    private String getSetupHash(File setup) throws IOException {
+        String code = Util.loadFile(setup);
+        ScriptEngine engine = getEnginePool().checkout();
+        if (engine == null) {
+            return Util.hash(code);
+        }
+        try {
+            return getCacheKey(engine, code);
+        } finally {
+            getEnginePool().release(engine);
+        }
+    }
+
+    private static void writeMarker(File marker, String hash) throws IOException {
+        File directory = marker.getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create " + directory);
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(marker), "UTF-8")) {
+            writer.write(hash);
+        }
+    }
+
+    @Override
+    public boolean isStatementComplete(List<String> lines) {
+        if (!super.isStatementComplete(lines)) {
+            return false;
         }
+
+        // blocks are only complete when the next line isn't part of them anymore, see continuesStatement
+        for (String line : lines) {
+            if (STATEMENT_SCANNER.stripComment(line).endsWith(":")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean continuesStatement(List<String> lines, String line) {
+        if (!super.isStatementComplete(lines) || line.startsWith(" ") || line.startsWith("\t")) {
+            return true;
+        }
+
+        List<String> words = STATEMENT_SCANNER.getWords(line);
+        return !words.isEmpty() && BLOCK_CONTINUATIONS.contains(words.get(0));
+    }
+
+    @Override
+    protected StatementScanner getStatementScanner() {
+        return STATEMENT_SCANNER;
     }
 }
@@ -18,145 +18,44 @@
 package de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl;
 
 import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.StatementScanner;
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.SyntaxHighlighter;
 import de.static_interface.sinkscripts.util.Util;
 import org.bukkit.ChatColor;
 import org.bukkit.plugin.Plugin;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 
 public class RubyScript extends ScriptEngineScript {
 
+    private static final StatementScanner STATEMENT_SCANNER = new StatementScanner("\"'", "#");
+    private static final List<String> BLOCK_STARTS = Arrays.asList("def", "class", "module", "begin", "case", "do");
+    // only start a block at the start of a statement, "x = 1 if y" is a modifier
+    private static final List<String> CONDITIONAL_STARTS = Arrays.asList("if", "unless", "while", "until", "for");
+
+    // OFF interprets the scripts, JIT compiles methods once they got called often enough, FORCE compiles every script
+    private static final List<String> COMPILE_MODES = Arrays.asList("OFF", "JIT", "FORCE");
+
+    private static final SyntaxHighlighter HIGHLIGHTER = new SyntaxHighlighter("\"'", false)
+            .keywords(ChatColor.GOLD,
+                      "import", "package", "false", "nil", "true", "java_import", "include", "include_class",
+                      "include_package", "require", "package_name")
+            .keywords(SyntaxHighlighter.KEYWORD_COLOR,
+                      "BEGIN", "END", "__ENCODING__", "__END__", "__FILE__", "__LINE__", "alias", "and", "begin",
+                      "break", "case", "class", "def", "defined?", "do", "else", "elsif", "end", "ensure", "for", "if",
+                      "in", "module", "next", "not", "or", "redo", "rescue", "retry", "return", "self", "super", "then",
+                      "undef", "unless", "until", "when", "while", "yield");
+
     public RubyScript(Plugin plugin) {
         super(plugin, "ruby", "rb", "jruby");
     }
 
     @Override
-    public String formatCode(String code) {
-        ChatColor defaultColor = ChatColor.DARK_BLUE;
-        ChatColor codeColor = ChatColor.RESET;
-        ChatColor classColor = ChatColor.BLUE;
-        ChatColor stringColor = ChatColor.RED;
-
-        //Set class color, its not the best solution, because variables may also start with an uppercase name
-        boolean classStart = false;
-        char lastChar = 0;
-        String tmp = "";
-        for (char Char : code.toCharArray()) {
-            boolean t = false;
-            if (!Character.isAlphabetic(lastChar) && Character.isUpperCase(Char) && !classStart) {
-                classStart = true;
-                t = true;
-            }
-
-            if (!classStart) {
-                tmp += Char;
-                continue;
-            }
-
-            if (!Character.isAlphabetic(Char)
-                && !t)//if(Char == '.' || Char == ' ' || Char == ';' || Char == '+' || Char == '-' || Char == '*' || Char == ':' || Char == '/')
-            {
-                classStart = false;
-                tmp += ChatColor.RESET + "" + Char;
-                continue;
-            }
-
-            tmp += classColor + "" + Char;
-            lastChar = Char;
-        }
-
-        code = tmp;
-
-        HashMap<String, ChatColor> syntaxColors = new HashMap<>();
-        syntaxColors.put("import", ChatColor.GOLD);
-        syntaxColors.put("package", ChatColor.GOLD);
-        syntaxColors.put("BEGIN", defaultColor);
-        syntaxColors.put("END", defaultColor);
-        syntaxColors.put("__ENCODING__", defaultColor);
-        syntaxColors.put("__END__", defaultColor);
-        syntaxColors.put("__FILE__", defaultColor);
-        syntaxColors.put("__LINE__", defaultColor);
-        syntaxColors.put("alias", defaultColor);
-        syntaxColors.put("and", defaultColor);
-        syntaxColors.put("begin", defaultColor);
-        syntaxColors.put("break", defaultColor);
-        syntaxColors.put("case", defaultColor);
-        syntaxColors.put("class", defaultColor);
-        syntaxColors.put("def", defaultColor);
-        syntaxColors.put("defined?", defaultColor);
-        syntaxColors.put("do", defaultColor);
-        syntaxColors.put("else", defaultColor);
-        syntaxColors.put("elsif", defaultColor);
-        syntaxColors.put("end", defaultColor);
-        syntaxColors.put("ensure", defaultColor);
-        syntaxColors.put("false", ChatColor.GOLD);
-        syntaxColors.put("for", defaultColor);
-        syntaxColors.put("if", defaultColor);
-        syntaxColors.put("in", defaultColor);
-        syntaxColors.put("module", defaultColor);
-        syntaxColors.put("next", defaultColor);
-        syntaxColors.put("nil", ChatColor.GOLD);
-        syntaxColors.put("not", defaultColor);
-        syntaxColors.put("or", defaultColor);
-        syntaxColors.put("redo", defaultColor);
-        syntaxColors.put("rescue", defaultColor);
-        syntaxColors.put("retry", defaultColor);
-        syntaxColors.put("return", defaultColor);
-        syntaxColors.put("self", defaultColor);
-        syntaxColors.put("super", defaultColor);
-        syntaxColors.put("then", defaultColor);
-        syntaxColors.put("true", ChatColor.GOLD);
-        syntaxColors.put("undef", defaultColor);
-        syntaxColors.put("unless", defaultColor);
-        syntaxColors.put("until", defaultColor);
-        syntaxColors.put("when", defaultColor);
-        syntaxColors.put("while", defaultColor);
-        syntaxColors.put("yield", defaultColor);
-
-        syntaxColors.put("java_import", ChatColor.GOLD);
-        syntaxColors.put("import", ChatColor.GOLD);
-        syntaxColors.put("include", ChatColor.GOLD);
-        syntaxColors.put("include_class", ChatColor.GOLD);
-        syntaxColors.put("include_package", ChatColor.GOLD);
-        syntaxColors.put("require", ChatColor.GOLD);
-        syntaxColors.put("package_name", ChatColor.GOLD);
-
-        for (String keyWord : syntaxColors.keySet()) {
-            ChatColor color = syntaxColors.get(keyWord);
-            code = code.replace(" " + keyWord + " ", color + " " + keyWord + " " + ChatColor.RESET);
-            code = code.replace(" " + keyWord, color + " " + keyWord + ChatColor.RESET);
-            code = code.replace(keyWord + " ", color + keyWord + " " + ChatColor.RESET);
-        }
-
-        tmp = "";
-        lastChar = 0;
-
-        boolean stringStart = false;
-
-        //Set String color
-        for (char Char : code.toCharArray()) {
-            if (Char == '"' && lastChar != '\\') {
-                if (!stringStart) {
-                    tmp += stringColor;
-                }
-
-                tmp += Char;
-
-                if (stringStart) {
-                    tmp += codeColor;
-                }
-
-                stringStart = !stringStart;
-            } else {
-                tmp += Char;
-            }
-            lastChar = Char;
-        }
-
-        return tmp;
+    protected String onFormatCode(String code) {
+        return HIGHLIGHTER.highlight(code);
     }
 
     @Override
@@ -201,7 +100,52 @@ public class RubyScript extends ScriptEngineScript {
 
     @Override
     public void onInit() {
-        System.setProperty("org.jruby.embed.compilemode", "OFF");
-        System.setProperty("jruby.compile.mode", "OFF");
+        String compileMode = getSetting("compile-mode", "OFF").toUpperCase();
+        if (!COMPILE_MODES.contains(compileMode)) {
+            plugin.getLogger().warning("Unknown ruby compile-mode: " + compileMode + ", valid modes are " + COMPILE_MODES);
+            compileMode = "OFF";
+        }
+        System.setProperty("org.jruby.embed.compilemode", compileMode);
+        System.setProperty("jruby.compile.mode", compileMode);
+
+        // calls of a method before it gets compiled in JIT mode, 0 or less keeps the default of jruby
+        int threshold = getSetting("jit.threshold", 0);
+        if (threshold > 0) {
+            System.setProperty("jruby.jit.threshold", String.valueOf(threshold));
+        }
+        int max = getSetting("jit.max", 0);
+        if (max > 0) {
+            System.setProperty("jruby.jit.max", String.valueOf(max));
+        }
+    }
+
+    @Override
+    public boolean isStatementComplete(List<String> lines) {
+        if (!super.isStatementComplete(lines)) {
+            return false;
+        }
+
+        int depth = 0;
+        for (String line : lines) {
+            List<String> words = STATEMENT_SCANNER.getWords(line);
+            boolean loop = !words.isEmpty() && CONDITIONAL_STARTS.contains(words.get(0));
+            for (int i = 0; i < words.size(); i++) {
+                String word = words.get(i);
+                if (word.equals("end")) {
+                    depth--;
+                } else if (i == 0 && CONDITIONAL_STARTS.contains(word)) {
+                    depth++;
+                } else if (BLOCK_STARTS.contains(word) && !(loop && word.equals("do"))) {
+                    // the do of "while x do" doesn't start another block
+                    depth++;
+                }
+            }
+        }
+        return depth <= 0;
+    }
+
+    @Override
+    protected StatementScanner getStatementScanner() {
+        return STATEMENT_SCANNER;
     }
 }
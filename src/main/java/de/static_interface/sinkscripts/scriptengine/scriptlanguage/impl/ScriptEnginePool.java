@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+
+/**
+ * Keeps pre-initialized engines of a {@link ScriptEngineScript}, so creating an executor doesn't have to wait for
+ * the engine discovery and bootstrap. Missing engines are created in the background.
+ * <p>
+ * Resetting the bindings doesn't reset the runtime of most engines: JRuby keeps globals, constants and methods,
+ * Jython {@code sys.modules} and its builtins, Groovy its class cache and metaclass changes. So engines which ran
+ * code are only given back to the pool if their language says they can be reset, see
+ * {@link ScriptEngineScript#isEngineResettable()}. All other engines are discarded when they are released.
+ */
+public class ScriptEnginePool {
+
+    private final ScriptEngineScript language;
+    private final Plugin plugin;
+    private final int minSize;
+    private final int maxSize;
+    private final BlockingQueue<ScriptEngine> idleEngines;
+    private final AtomicBoolean refilling = new AtomicBoolean(false);
+    private final Set<ScriptEngine> usedEngines = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<ScriptEngine, Boolean>()));
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong checkouts = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong returned = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    public ScriptEnginePool(ScriptEngineScript language, Plugin plugin, int minSize, int maxSize) {
+        this.language = language;
+        this.plugin = plugin;
+        this.maxSize = Math.max(0, maxSize);
+        this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+        idleEngines = new ArrayBlockingQueue<>(Math.max(1, this.maxSize));
+    }
+
+    /**
+     * Take an engine out of the pool. If no engine is available, a new one will be created on the calling thread
+     * @return the engine or null if the engine isn't available
+     */
+    @Nullable
+    public ScriptEngine checkout() {
+        checkouts.incrementAndGet();
+        ScriptEngine engine = idleEngines.poll();
+        if (engine != null) {
+            hits.incrementAndGet();
+        } else {
+            engine = create();
+        }
+
+        refill();
+        return engine;
+    }
+
+    /**
+     * Remember that an engine runs or compiles code, it won't be given back to the pool unless it can be reset
+     * @param engine the engine
+     */
+    public void markUsed(ScriptEngine engine) {
+        usedEngines.add(engine);
+    }
+
+    /**
+     * Give an engine back to the pool. Its bindings and writers will be reset, engines which ran code are discarded
+     * instead if they can't be reset
+     * @param engine the engine
+     */
+    public void release(@Nullable ScriptEngine engine) {
+        if (engine == null) {
+            return;
+        }
+
+        if (usedEngines.remove(engine) && !language.isEngineResettable()) {
+            discard(engine);
+            return;
+        }
+
+        try {
+            engine.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+            engine.getContext().setWriter(new PrintWriter(System.out, true));
+            engine.getContext().setErrorWriter(new PrintWriter(System.err, true));
+        } catch (Exception e) {
+            // engine is unusable now
+            discard(engine);
+            return;
+        }
+
+        if (maxSize > 0 && idleEngines.offer(engine)) {
+            returned.incrementAndGet();
+        } else {
+            discard(engine);
+        }
+    }
+
+    /**
+     * Fill the pool up to its minimum size in the background
+     */
+    public void refill() {
+        if (idleEngines.size() >= minSize || !refilling.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (!plugin.isEnabled()) {
+            refilling.set(false);
+            return;
+        }
+
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (idleEngines.size() < minSize) {
+                        ScriptEngine engine = create();
+                        if (engine == null || !idleEngines.offer(engine)) {
+                            break;
+                        }
+                    }
+                } catch (Throwable thr) {
+                    plugin.getLogger().warning(language.getName() + ": Couldn't fill engine pool: " + thr.getMessage());
+                } finally {
+                    refilling.set(false);
+                }
+            }
+        });
+    }
+
+    public void shutdown() {
+        idleEngines.clear();
+    }
+
+    private void discard(ScriptEngine engine) {
+        discarded.incrementAndGet();
+        // the compiled scripts of the engine would keep the whole runtime alive
+        language.removeCompiledScripts(engine);
+    }
+
+    @Nullable
+    private ScriptEngine create() {
+        ScriptEngine engine = language.newEngine();
+        if (engine != null) {
+            created.incrementAndGet();
+        }
+        return engine;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdleCount() {
+        return idleEngines.size();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getCheckoutCount() {
+        return checkouts.get();
+    }
+
+    /**
+     * @return how often a checkout could be served with an idle engine
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getReturnedCount() {
+        return returned.get();
+    }
+
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+}
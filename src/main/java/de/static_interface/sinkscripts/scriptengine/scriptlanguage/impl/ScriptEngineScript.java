@@ -17,45 +17,182 @@
 
 package de.static_interface.sinkscripts.scriptengine.scriptlanguage.impl;
 
-import de.static_interface.sinklibrary.SinkLibrary;
 import de.static_interface.sinkscripts.SinkScripts;
 import de.static_interface.sinkscripts.scriptengine.scriptcontext.ScriptContext;
 import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
-import de.static_interface.sinkscripts.util.JoinClassLoader;
-import org.bukkit.Bukkit;
+import de.static_interface.sinkscripts.util.LruCache;
+import de.static_interface.sinkscripts.util.Util;
 import org.bukkit.ChatColor;
 import org.bukkit.plugin.Plugin;
 
+import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 
 import javax.annotation.Nullable;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
 import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
 
 public abstract class ScriptEngineScript extends ScriptLanguage<ScriptEngine> {
 
     String engineName;
+    private final LruCache<String, CompiledScript> compiledScripts;
+    private final ScriptEnginePool enginePool;
+    private ScriptEngineManager engineManager;
 
     public ScriptEngineScript(Plugin plugin, String name, String fileExtension, String engineName) {
         super(plugin, name, fileExtension);
         this.engineName = engineName;
+        compiledScripts = new LruCache<>(getSetting("compiled-cache-size", 64));
+        enginePool = new ScriptEnginePool(this, plugin, getSetting("engine-pool.min-size", 1), getSetting("engine-pool.max-size", 4));
     }
 
     @Override
     public Object eval(ScriptContext context, String code) throws Throwable {
-        return ((ScriptEngine)context.getExecutor()).eval(code);
+        ScriptEngine engine = (ScriptEngine) context.getExecutor();
+        enginePool.markUsed(engine);
+        if (!(engine instanceof Compilable)) {
+            return engine.eval(code);
+        }
+        return getCompiledScript(engine, code).eval(engine.getContext());
+    }
+
+    /**
+     * Get the compiled version of the given code, compiles it if it isn't cached yet
+     * @param engine the engine which should compile the code if needed
+     * @param code the code, including its imports
+     * @return the compiled script
+     */
+    protected CompiledScript getCompiledScript(ScriptEngine engine, String code) throws ScriptException {
+        return getCompiledScript(engine, code, false);
+    }
+
+    /**
+     * @param persistent true if the compiled script may be kept on disk, see {@link #compile(ScriptEngine, String, boolean)}
+     */
+    protected CompiledScript getCompiledScript(ScriptEngine engine, String code, boolean persistent) throws ScriptException {
+        String key = getEngineKey(engine) + Util.hash(code);
+        CompiledScript script = compiledScripts.get(key);
+        if (script != null && (isCompiledScriptPortable() || script.getEngine() == engine)) {
+            return script;
+        }
+
+        // autostart scripts are precompiled on the executor of their context from several threads
+        synchronized (engine) {
+            script = compile(engine, code, persistent);
+        }
+        compiledScripts.put(key, script);
+        return script;
+    }
+
+    /**
+     * @return the prefix of the cache keys of the scripts compiled by the engine, scripts which aren't portable are
+     *         cached per engine
+     */
+    private String getEngineKey(ScriptEngine engine) {
+        return isCompiledScriptPortable() ? "" : Integer.toHexString(System.identityHashCode(engine)) + ":";
+    }
+
+    /**
+     * Remove the scripts compiled by an engine from the memory cache, called when the engine is discarded
+     * @param engine the engine
+     */
+    void removeCompiledScripts(ScriptEngine engine) {
+        if (isCompiledScriptPortable()) {
+            return;
+        }
+
+        String prefix = getEngineKey(engine);
+        for (String key : compiledScripts.keys()) {
+            if (key.startsWith(prefix)) {
+                compiledScripts.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Compile code which isn't in the memory cache yet. Languages can override this to keep the result in
+     * {@link #getCacheDirectory()}, so it survives restarts
+     * @param engine the engine, it is {@link Compilable}
+     * @param code the code
+     * @param persistent true if the code comes from a file which will be run again after a restart, e.g. an autostart
+     *                   script. Console input should never end up on disk
+     * @return the compiled script
+     */
+    protected CompiledScript compile(ScriptEngine engine, String code, boolean persistent) throws ScriptException {
+        return ((Compilable) engine).compile(code);
+    }
+
+    /**
+     * @return a key for the result of compiling the code, which changes with the code, the engine and the server version
+     */
+    protected String getCacheKey(ScriptEngine engine, String code) {
+        ScriptEngineFactory factory = engine.getFactory();
+        String serverVersion = plugin.getServer() == null ? "" : plugin.getServer().getVersion();
+        return Util.hash(factory.getEngineName() + ":" + factory.getEngineVersion() + ":" + factory.getLanguageVersion() + ":"
+                         + serverVersion + Util.getNewLine() + code);
+    }
+
+    /**
+     * @return the directory for compiled scripts kept between restarts
+     */
+    protected File getCacheDirectory() {
+        return new File(new File(SinkScripts.SCRIPTS_FOLDER, "cache"), getName());
     }
 
     @Override
-    public ScriptEngine createExecutor(@Nullable final ScriptContext context) {
-        ClassLoader cl = new JoinClassLoader(SinkLibrary.getInstance().getClazzLoader(), Bukkit.class.getClassLoader(),
-                            ((SinkScripts)plugin).getClazzLoader(), SinkLibrary.class.getClassLoader());
+    public void precompile(ScriptContext context, String code) throws Exception {
+        // the compiled script is bound to the engine which compiled it, so the executor which will run it compiles it
+        Object engine = context.getExecutor();
+        if (!(engine instanceof Compilable)) {
+            return;
+        }
+
+        enginePool.markUsed((ScriptEngine) engine);
+        ClassLoader oldClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(getScriptClassLoader());
+            // the script will run with its safe points, see ScriptLanguage#execute
+            String runCode = supportsSafePoints() ? addSafePoints(code) : code;
+            getCompiledScript((ScriptEngine) engine, runCode, getSetting("disk-cache.enabled", true));
+        } finally {
+            Thread.currentThread().setContextClassLoader(oldClassLoader);
+        }
+    }
 
-        Thread.currentThread().setContextClassLoader(cl);
-        ScriptEngine engine = new ScriptEngineManager(cl).getEngineByName(engineName);
+    /**
+     * A compiled script usually stays bound to the engine which compiled it: Jython evaluates it in the interpreter of
+     * that engine, JRuby in its container and Nashorn creates a new global for the bindings of other engines. Reusing
+     * it for another engine would run the code of one user in the runtime of another, so languages have to opt in
+     * @return true if scripts compiled by one engine can be evaluated with the context of another engine of this language
+     */
+    protected boolean isCompiledScriptPortable() {
+        return false;
+    }
+
+    /**
+     * @return true if replacing the bindings of an engine removes everything scripts left in it, so the engine can be
+     *         used by another context afterwards
+     */
+    protected boolean isEngineResettable() {
+        return false;
+    }
+
+    public LruCache<String, CompiledScript> getCompiledScripts() {
+        return compiledScripts;
+    }
+
+    @Override
+    public ScriptEngine createExecutor(@Nullable final ScriptContext context) {
+        ScriptEngine engine = enginePool.checkout();
         if(engine == null) return null;
 
+        Thread.currentThread().setContextClassLoader(getScriptClassLoader());
+
         if(context != null) {
             final StringWriter writer = new StringWriter() {
                 @Override
@@ -76,6 +213,46 @@ public abstract class ScriptEngineScript extends ScriptLanguage<ScriptEngine> {
         return engine;
     }
 
+    @Override
+    public void releaseExecutor(ScriptEngine executor) {
+        enginePool.release(executor);
+    }
+
+    /**
+     * Create a new engine, use {@link #createExecutor(ScriptContext)} to get a pooled one
+     * @return the new engine or null if the engine isn't available
+     */
+    @Nullable
+    protected ScriptEngine newEngine() {
+        Thread.currentThread().setContextClassLoader(getScriptClassLoader());
+        return getEngineManager().getEngineByName(engineName);
+    }
+
+    protected ClassLoader getScriptClassLoader() {
+        return ((SinkScripts) plugin).getScriptClassLoader();
+    }
+
+    private synchronized ScriptEngineManager getEngineManager() {
+        if (engineManager == null) {
+            engineManager = new ScriptEngineManager(getScriptClassLoader());
+        }
+        return engineManager;
+    }
+
+    public ScriptEnginePool getEnginePool() {
+        return enginePool;
+    }
+
+    @Override
+    protected void onPostInit() {
+        enginePool.refill();
+    }
+
+    @Override
+    public void onDisable() {
+        enginePool.shutdown();
+    }
+
     @Override
     public void setVariable(ScriptContext context, String name, Object value) {
         ScriptEngine engine = (ScriptEngine) context.getExecutor();
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.util;
+
+import de.static_interface.sinkscripts.SinkScripts;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the content of script files, so frequently loaded scripts (e.g. libraries loaded with {@code .load}) don't
+ * have to be read and decoded again.
+ * <p>
+ * Entries are validated by the modification time and size of the file on every access. Files are read in bulk into a
+ * heap buffer and decoded as UTF-8, the file is closed right after. Line separators are replaced with the one of the
+ * platform.
+ */
+public class FileContentCache {
+
+    private static FileContentCache instance;
+
+    private final LruCache<String, Entry> entries;
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    public static synchronized FileContentCache getInstance() {
+        if (instance == null) {
+            SinkScripts plugin = SinkScripts.getInstance();
+            if (plugin == null) {
+                instance = new FileContentCache(1048576);
+            } else {
+                instance = new FileContentCache(plugin.getConfig().getLong("file-cache.size", 1048576));
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param maxChars characters of file contents which are kept
+     */
+    public FileContentCache(long maxChars) {
+        entries = new LruCache<>(maxChars, new LruCache.Weigher<String, Entry>() {
+            @Override
+            public long weigh(String path, Entry entry) {
+                // chars of the path and the content plus a rough guess for the entry objects
+                return path.length() + entry.content.length() + 64;
+            }
+        });
+    }
+
+    /**
+     * @param file the file
+     * @return the content of the file, every line ends with {@link Util#getNewLine()}
+     */
+    public String getContent(File file) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException("Couldn't find file: " + file);
+        }
+
+        String key = file.getAbsolutePath();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.lastModified == lastModified && entry.size == attributes.size()) {
+            return entry.content;
+        }
+        if (entry != null) {
+            reloads.incrementAndGet();
+        }
+
+        String content = normalizeLines(read(file, attributes.size()));
+        entries.put(key, new Entry(lastModified, attributes.size(), content));
+        return content;
+    }
+
+    private CharSequence read(File file, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File is too large: " + file);
+        }
+
+        // a memory mapped file would stay locked on windows until the mapping gets garbage collected
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read until the buffer is full or the file ended
+            }
+            buffer.flip();
+            bytesRead.addAndGet(buffer.remaining());
+
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(buffer);
+        }
+    }
+
+    /**
+     * Replace \n, \r and \r\n with the line separator of the platform and end the last line with it too, like
+     * reading the file line by line would
+     */
+    private static String normalizeLines(CharSequence content) {
+        String nl = Util.getNewLine();
+        StringBuilder builder = new StringBuilder(content.length() + nl.length());
+        int lineStart = 0;
+        int length = content.length();
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            if (c != '\n' && c != '\r') {
+                continue;
+            }
+            builder.append(content, lineStart, i).append(nl);
+            if (c == '\r' && i + 1 < length && content.charAt(i + 1) == '\n') {
+                i++;
+            }
+            lineStart = i + 1;
+        }
+        if (lineStart < length) {
+            builder.append(content, lineStart, length).append(nl);
+        }
+        return builder.toString();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public LruCache<String, Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return how often a cached file had to be read again because it has been changed
+     */
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    /**
+     * @return the bytes read from the disk
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public static class Entry {
+        private final long lastModified;
+        private final long size;
+        private final String content;
+
+        private Entry(long lastModified, long size, String content) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.content = content;
+        }
+    }
+}
@@ -17,12 +17,21 @@
 
 package de.static_interface.sinkscripts.util;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.net.URL;
-import java.nio.ByteBuffer;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 /**
  * A class loader that combines multiple class loaders into one.<br>
@@ -32,60 +41,121 @@ import java.util.Vector;
  * Author Christian d'Heureuse, Inventec Informatik AG, Zurich, Switzerland, www.source-code.biz<br>
  * License: LGPL, http://www.gnu.org/licenses/lgpl.html<br>
  * Please contact the author if you need another license.
+ * <p>
+ * Modified to remember which delegate provides which package and which classes couldn't be found at all.
+ * The jars of {@link URLClassLoader} delegates are indexed once on creation, other packages are indexed when they
+ * are first seen. Scripting languages probe lots of generated names which never exist (e.g. {@code *BeanInfo}), so
+ * only the most recently missed classes are remembered. Call {@link #clearMissingClasses()} when classes may have
+ * become available, e.g. when a plugin got enabled.
+ * <p>
+ * This class loader is parallel capable: classes are loaded with a lock per class name instead of locking the
+ * whole class loader, so concurrent scripts don't wait for each other. All state is kept in concurrent collections.
  */
 public class JoinClassLoader extends ClassLoader {
 
-    private ClassLoader[] delegateClassLoaders;
+    private static final int MAX_MISSING_CLASSES = 4096;
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final ClassLoader[] delegateClassLoaders;
+    private final ConcurrentMap<String, ClassLoader> packageIndex = new ConcurrentHashMap<>();
+    private final LruCache<String, Boolean> missingClasses = new LruCache<>(MAX_MISSING_CLASSES);
 
     public JoinClassLoader(ClassLoader parent, ClassLoader... delegateClassLoaders) {
         super(parent);
         this.delegateClassLoaders = delegateClassLoaders;
+        for (ClassLoader delegate : delegateClassLoaders) {
+            if (delegate instanceof URLClassLoader) {
+                indexPackages((URLClassLoader) delegate);
+            }
+        }
     }
 
     protected Class<?> findClass(String name) throws ClassNotFoundException {
         // It would be easier to call the loadClass() methods of the delegateClassLoaders
         // here, but we have to load the class from the byte code ourselves, because we
         // need it to be associated with our class loader.
+        if (missingClasses.get(name) != null) {
+            throw new ClassNotFoundException(name);
+        }
+
         String path = name.replace('.', '/') + ".class";
-        URL url = findResource(path);
+        URL url = findClassResource(name, path);
         if (url == null) {
+            missingClasses.put(name, Boolean.TRUE);
             throw new ClassNotFoundException(name);
         }
-        ByteBuffer byteCode;
+        byte[] byteCode;
         try {
             byteCode = loadResource(url);
         } catch (IOException e) {
             throw new ClassNotFoundException(name, e);
         }
-        return defineClass(name, byteCode, null);
+        return defineClass(name, byteCode, 0, byteCode.length);
     }
 
-    private ByteBuffer loadResource(URL url) throws IOException {
+    /**
+     * Forget the classes which couldn't be found, so they are looked up again
+     */
+    public void clearMissingClasses() {
+        missingClasses.clear();
+    }
+
+    private URL findClassResource(String className, String path) {
+        String packageName = getPackageName(className);
+        ClassLoader indexed = packageIndex.get(packageName);
+        if (indexed != null) {
+            URL resource = indexed.getResource(path);
+            if (resource != null) {
+                return resource;
+            }
+        }
+
+        // split or unknown package
+        for (ClassLoader delegate : delegateClassLoaders) {
+            if (delegate == indexed) {
+                continue;
+            }
+            URL resource = delegate.getResource(path);
+            if (resource != null) {
+                packageIndex.putIfAbsent(packageName, delegate);
+                return resource;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the resource directly into an array of its size if the size is known
+     */
+    private byte[] loadResource(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        int size = connection.getContentLength();
         InputStream stream = null;
         try {
-            stream = url.openStream();
-            int initialBufferCapacity = Math.min(0x40000, stream.available() + 1);
-            if (initialBufferCapacity <= 2) {
-                initialBufferCapacity = 0x10000;
-            } else {
-                initialBufferCapacity = Math.max(initialBufferCapacity, 0x200);
-            }
-            ByteBuffer buf = ByteBuffer.allocate(initialBufferCapacity);
-            while (true) {
-                if (!buf.hasRemaining()) {
-                    ByteBuffer newBuf = ByteBuffer.allocate(2 * buf.capacity());
-                    buf.flip();
-                    newBuf.put(buf);
-                    buf = newBuf;
-                }
-                int len = stream.read(buf.array(), buf.position(), buf.remaining());
-                if (len <= 0) {
-                    break;
+            stream = connection.getInputStream();
+            if (size >= 0) {
+                byte[] bytes = new byte[size];
+                int offset = 0;
+                while (offset < size) {
+                    int len = stream.read(bytes, offset, size - offset);
+                    if (len < 0) {
+                        throw new EOFException("Unexpected end of " + url);
+                    }
+                    offset += len;
                 }
-                buf.position(buf.position() + len);
+                return bytes;
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(0x10000);
+            byte[] buffer = new byte[0x2000];
+            int len;
+            while ((len = stream.read(buffer)) >= 0) {
+                out.write(buffer, 0, len);
             }
-            buf.flip();
-            return buf;
+            return out.toByteArray();
         } finally {
             if (stream != null) {
                 stream.close();
@@ -93,6 +163,43 @@ public class JoinClassLoader extends ClassLoader {
         }
     }
 
+    private void indexPackages(URLClassLoader delegate) {
+        for (URL url : delegate.getURLs()) {
+            if (!"file".equals(url.getProtocol()) || !url.getPath().endsWith(".jar")) {
+                continue;
+            }
+
+            JarFile jar = null;
+            try {
+                jar = new JarFile(new File(new URI(url.toString())));
+                Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    String entryName = entries.nextElement().getName();
+                    if (!entryName.endsWith(".class")) {
+                        continue;
+                    }
+                    int i = entryName.lastIndexOf('/');
+                    String packageName = i < 0 ? "" : entryName.substring(0, i).replace('/', '.');
+                    packageIndex.putIfAbsent(packageName, delegate);
+                }
+            } catch (Exception ignored) {
+                // will be indexed on first lookup instead
+            } finally {
+                if (jar != null) {
+                    try {
+                        jar.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    private static String getPackageName(String className) {
+        int i = className.lastIndexOf('.');
+        return i < 0 ? "" : className.substring(0, i);
+    }
+
     protected URL findResource(String name) {
         for (ClassLoader delegate : delegateClassLoaders) {
             URL resource = delegate.getResource(name);
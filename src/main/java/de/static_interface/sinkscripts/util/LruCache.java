@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small thread safe least-recently-used cache which counts its hits and misses.
+ * <p>
+ * The cache is either limited by the amount of entries or, if it has a {@link Weigher}, by the total weight of its
+ * entries. Entries heavier than the whole cache are never stored.
+ */
+public class LruCache<K, V> {
+
+    /**
+     * Calculates the weight of an entry, e.g. its approximate size in memory
+     */
+    public interface Weigher<K, V> {
+        long weigh(K key, V value);
+    }
+
+    private final LinkedHashMap<K, V> entries;
+    private final int maxSize;
+    private final long maxWeight;
+    private final Weigher<K, V> weigher;
+    private long weight;
+    private long hits;
+    private long misses;
+
+    public LruCache(final int maxSize) {
+        this(maxSize, -1, null);
+    }
+
+    /**
+     * @param maxWeight the maximum total weight of all entries
+     * @param weigher calculates the weight of the entries
+     */
+    public LruCache(long maxWeight, Weigher<K, V> weigher) {
+        this(Integer.MAX_VALUE, maxWeight, weigher);
+    }
+
+    private LruCache(final int maxSize, long maxWeight, Weigher<K, V> weigher) {
+        this.maxSize = maxSize;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > LruCache.this.maxSize) {
+                    removeWeight(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        if (maxSize <= 0) {
+            return;
+        }
+
+        if (weigher == null) {
+            entries.put(key, value);
+            return;
+        }
+
+        long entryWeight = weigher.weigh(key, value);
+        if (entryWeight > maxWeight) {
+            // the entry isn't stored, but the value it should have replaced is outdated
+            V old = entries.remove(key);
+            if (old != null) {
+                removeWeight(key, old);
+            }
+            return;
+        }
+
+        V old = entries.put(key, value);
+        if (old != null) {
+            removeWeight(key, old);
+        }
+        weight += entryWeight;
+
+        Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            Map.Entry<K, V> eldest = iterator.next();
+            removeWeight(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+        }
+    }
+
+    public synchronized V remove(K key) {
+        V value = entries.remove(key);
+        if (value != null) {
+            removeWeight(key, value);
+        }
+        return value;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * @return a copy of the keys, from the least to the most recently used
+     */
+    public synchronized List<K> keys() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the total weight of all entries, always 0 for caches without weigher
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void removeWeight(K key, V value) {
+        if (weigher != null) {
+            weight -= weigher.weigh(key, value);
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2013 - 2014 http://static-interface.de and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.static_interface.sinkscripts.util;
+
+import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nullable;
+
+/**
+ * Maps script names to the files in the {@link ScriptLanguage#SCRIPTLANGUAGE_DIRECTORY} of every language, so looking
+ * up a script doesn't have to search the directories.
+ * <p>
+ * A script can be found by its path relative to the language directory (e.g. {@code utils/teleport}) or by its file
+ * name alone (e.g. {@code teleport}). If several files have the same name, the one closest to the language directory
+ * wins. The index is kept up to date by a {@link WatchService}, changes may take a moment to show up.
+ */
+public class ScriptFileIndex {
+
+    /**
+     * Gets notified about created and modified scripts, on the thread of the watch service
+     */
+    public interface Listener {
+        void onFileChanged(ScriptLanguage language, File file);
+    }
+
+    private static ScriptFileIndex instance;
+
+    private final Map<ScriptLanguage, LanguageIndex> indexes = new ConcurrentHashMap<>();
+    private final Map<WatchKey, LanguageIndex> watchKeys = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+    private Thread watchThread;
+
+    public static synchronized ScriptFileIndex getInstance() {
+        if (instance == null) {
+            instance = new ScriptFileIndex();
+        }
+        return instance;
+    }
+
+    /**
+     * Build the index of a language and watch its directory for changes
+     * @param language the language, its directory must exist
+     */
+    public void index(ScriptLanguage language) throws IOException {
+        LanguageIndex index = new LanguageIndex(language);
+        indexes.put(language, index);
+        index.build();
+    }
+
+    /**
+     * Stop watching the directory of the language and forget its index
+     */
+    public void remove(ScriptLanguage language) {
+        LanguageIndex index = indexes.remove(language);
+        if (index == null) {
+            return;
+        }
+        Iterator<Map.Entry<WatchKey, LanguageIndex>> iterator = watchKeys.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<WatchKey, LanguageIndex> entry = iterator.next();
+            if (entry.getValue() == index) {
+                entry.getKey().cancel();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Add a file right away, e.g. after it has been saved, instead of waiting for the watch service
+     */
+    public void add(ScriptLanguage language, File file) {
+        LanguageIndex index = indexes.get(language);
+        if (index != null) {
+            index.add(file.toPath());
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Find a script. Doesn't access the disk
+     * @param language the language of the script
+     * @param scriptName the name or relative path of the script, without extension
+     * @return the file or null if the script isn't indexed
+     */
+    @Nullable
+    public File find(ScriptLanguage language, String scriptName) {
+        LanguageIndex index = indexes.get(language);
+        if (index == null) {
+            return null;
+        }
+        Path path = index.find(scriptName.replace('\\', '/'));
+        return path == null ? null : path.toFile();
+    }
+
+    /**
+     * Stop watching and forget all indexes
+     */
+    public synchronized void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            watchService = null;
+            watchThread = null;
+        }
+        watchKeys.clear();
+        indexes.clear();
+        listeners.clear();
+    }
+
+    private synchronized WatchService getWatchService() throws IOException {
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+            final WatchService service = watchService;
+            watchThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    watch(service);
+                }
+            }, "SinkScripts File Index");
+            watchThread.setDaemon(true);
+            watchThread.start();
+        }
+        return watchService;
+    }
+
+    private void watch(WatchService service) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            LanguageIndex index = watchKeys.get(key);
+            if (index != null) {
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    try {
+                        index.handle(directory, event);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+
+            if (!key.reset()) {
+                // the directory has been deleted
+                watchKeys.remove(key);
+            }
+        }
+    }
+
+    private class LanguageIndex {
+        private final ScriptLanguage language;
+        private final Path root;
+        private final String extension;
+        // relative path without extension, always separated by '/'
+        private final Map<String, Path> paths = new ConcurrentHashMap<>();
+        // file name without extension, built from the paths when needed
+        private volatile Map<String, Path> names;
+        // changed with every change of the paths, names built from older paths aren't published
+        private int version;
+
+        private LanguageIndex(ScriptLanguage language) {
+            this.language = language;
+            this.root = language.SCRIPTLANGUAGE_DIRECTORY.toPath().toAbsolutePath();
+            this.extension = "." + language.getFileExtension();
+        }
+
+        private void build() throws IOException {
+            paths.clear();
+            invalidateNames();
+            addTree(root);
+        }
+
+        private void addTree(Path directory) throws IOException {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    WatchKey key = dir.register(getWatchService(), StandardWatchEventKinds.ENTRY_CREATE,
+                                                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                    watchKeys.put(key, LanguageIndex.this);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    add(file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        private void handle(Path directory, WatchEvent<?> event) throws IOException {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events got lost
+                build();
+                return;
+            }
+
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                removeTree(path);
+                return;
+            }
+
+            if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    addTree(path);
+                }
+                return;
+            }
+
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                add(path);
+            }
+            if (getKey(path.toAbsolutePath()) != null) {
+                for (Listener listener : listeners) {
+                    listener.onFileChanged(language, path.toFile());
+                }
+            }
+        }
+
+        private void add(Path file) {
+            String key = getKey(file.toAbsolutePath());
+            if (key != null) {
+                paths.put(key, file.toAbsolutePath());
+                invalidateNames();
+            }
+        }
+
+        private void removeTree(Path path) {
+            Iterator<Path> iterator = paths.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().startsWith(path)) {
+                    iterator.remove();
+                }
+            }
+            invalidateNames();
+        }
+
+        @Nullable
+        private String getKey(Path file) {
+            String name = file.getFileName().toString();
+            if (!name.toLowerCase().endsWith(extension) || !file.startsWith(root)) {
+                return null;
+            }
+            String relative = root.relativize(file).toString().replace(File.separatorChar, '/');
+            return relative.substring(0, relative.length() - extension.length());
+        }
+
+        @Nullable
+        private Path find(String scriptName) {
+            Path path = paths.get(scriptName);
+            if (path != null) {
+                return path;
+            }
+
+            Map<String, Path> names = this.names;
+            if (names == null) {
+                int builtVersion = getVersion();
+                names = buildNames();
+                publishNames(names, builtVersion);
+            }
+            return names.get(scriptName);
+        }
+
+        private synchronized int getVersion() {
+            return version;
+        }
+
+        private synchronized void invalidateNames() {
+            version++;
+            names = null;
+        }
+
+        /**
+         * Keep the names for the next lookups, unless the paths changed while they were built
+         */
+        private synchronized void publishNames(Map<String, Path> names, int builtVersion) {
+            if (version == builtVersion) {
+                this.names = names;
+            }
+        }
+
+        private Map<String, Path> buildNames() {
+            Map<String, Path> names = new HashMap<>();
+            for (Map.Entry<String, Path> entry : paths.entrySet()) {
+                String key = entry.getKey();
+                String name = key.substring(key.lastIndexOf('/') + 1);
+                Path current = names.get(name);
+                if (current == null || isCloser(entry.getValue(), current)) {
+                    names.put(name, entry.getValue());
+                }
+            }
+            return names;
+        }
+
+        private boolean isCloser(Path path, Path other) {
+            if (path.getNameCount() != other.getNameCount()) {
+                return path.getNameCount() < other.getNameCount();
+            }
+            return path.compareTo(other) < 0;
+        }
+    }
+}
@@ -23,14 +23,15 @@ import de.static_interface.sinkscripts.SinkScripts;
 import de.static_interface.sinkscripts.scriptengine.scriptlanguage.ScriptLanguage;
 import org.bukkit.ChatColor;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.logging.Level;
+import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 import javax.script.ScriptException;
@@ -48,6 +49,27 @@ public class Util {
         return null;
     }
 
+    /**
+     * @param s String to hash
+     * @return the hex encoded SHA-256 hash of the given String
+     */
+    public static String hash(String s) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+
+        byte[] hash = digest.digest(s.getBytes(StandardCharsets.UTF_8));
+        StringBuilder builder = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
     public static String getNewLine() {
         return System.getProperty("line.separator");
     }
@@ -101,26 +123,26 @@ public class Util {
         }
     }
 
+    /**
+     * Load a file as UTF-8, see {@link FileContentCache}
+     * @return the content of the file, every line ends with {@link #getNewLine()}
+     */
     public static String loadFile(File scriptFile) throws IOException {
-        String nl = Util.getNewLine();
-        if (scriptFile == null || !scriptFile.exists()) {
-            throw new FileNotFoundException("Couldn't find file: " + scriptFile);
+        if (scriptFile == null) {
+            throw new FileNotFoundException("Couldn't find file: null");
         }
-        BufferedReader br = new BufferedReader(new FileReader(scriptFile));
-        StringBuilder sb = new StringBuilder();
-        String line = br.readLine();
-
-        while (line != null) {
-            sb.append(line);
-            sb.append(nl);
-            line = br.readLine();
-        }
-        return sb.toString();
+        return FileContentCache.getInstance().getContent(scriptFile);
     }
 
     @Nullable
     public static String loadFile(String scriptName, @Nullable ScriptLanguage language) throws IOException {
-        File scriptFile = new File(language.SCRIPTLANGUAGE_DIRECTORY, scriptName + "." + language.getFileExtension());
+        File scriptFile = ScriptFileIndex.getInstance().find(language, scriptName);
+        if (scriptFile != null && scriptFile.exists()) {
+            return loadFile(scriptFile);
+        }
+
+        // not indexed (yet), e.g. if the file has just been created, or moved before the index noticed it
+        scriptFile = new File(language.SCRIPTLANGUAGE_DIRECTORY, scriptName + "." + language.getFileExtension());
         if (!scriptFile.exists()) {
             Debug.log("Couldn't find file: " + scriptFile.getAbsolutePath());
             scriptFile = Util.searchRecursively(scriptName, language.SCRIPTLANGUAGE_DIRECTORY, language);
@@ -129,15 +151,13 @@ public class Util {
     }
 
     public static String[] readLines(File file) throws IOException {
-        FileReader fileReader = new FileReader(file);
-        BufferedReader bufferedReader = new BufferedReader(fileReader);
-        List<String> lines = new ArrayList<>();
-        String line;
-        while ((line = bufferedReader.readLine()) != null) {
-            lines.add(line);
+        String content = loadFile(file);
+        if (content.isEmpty()) {
+            return new String[0];
         }
-        bufferedReader.close();
-        return lines.toArray(new String[lines.size()]);
+        // every line ends with a separator, so the last element is always empty
+        String[] lines = content.split(Pattern.quote(getNewLine()), -1);
+        return Arrays.copyOf(lines, lines.length - 1);
     }
 
 
@@ -148,7 +168,10 @@ public class Util {
         }
         for (File file : files) {
             if (file.isDirectory()) {
-                return searchRecursively(scriptName, file, language);
+                File result = searchRecursively(scriptName, file, language);
+                if (result != null) {
+                    return result;
+                }
             } else {
                 if (file.getName().equals(scriptName + "." + language.getFileExtension())) {
                     return file;